@@ -0,0 +1,314 @@
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Locale;
+
+/**
+ * Text armor for binary data: table-driven hex encoding and decoding, base64 through {@link Base64},
+ * and the hex dump printed to the console. Everything is formatted into large blocks first,
+ * so the console and the files see a few big writes instead of one write per byte.
+ *
+ * @author Yudong Lin
+ */
+final class Armor {
+    /**
+     * The size of the blocks handed to the underlying streams
+     */
+    static final int BLOCK_SIZE = 1 << 16;
+    /**
+     * The number of characters per line of armored files
+     */
+    private static final int LINE_LENGTH = 64;
+    private static final byte[] HEX_DIGITS = {
+            '0', '1', '2', '3', '4', '5', '6', '7', '8', '9', 'a', 'b', 'c', 'd', 'e', 'f'
+    };
+    private static final byte WHITESPACE = -2;
+    private static final byte INVALID = -1;
+    /**
+     * The value of every hex digit, {@link #WHITESPACE} for skipped characters and {@link #INVALID} for the rest
+     */
+    private static final byte[] HEX_VALUES = new byte[256];
+
+    static {
+        Arrays.fill(HEX_VALUES, INVALID);
+        for (int i = 0; i < 16; i++) {
+            HEX_VALUES[HEX_DIGITS[i]] = (byte) i;
+            HEX_VALUES[Character.toUpperCase(HEX_DIGITS[i])] = (byte) i;
+        }
+        for (final char c : new char[]{' ', '\t', '\r', '\n'}) {
+            HEX_VALUES[c] = WHITESPACE;
+        }
+    }
+
+    /**
+     * How binary data is written to and read from files
+     */
+    enum Encoding {
+        BINARY, HEX, BASE64;
+
+        /**
+         * Parse an encoding from its name, as given with --armor
+         *
+         * @param name the name, case-insensitive
+         * @return the encoding
+         */
+        static Encoding of(final String name) {
+            try {
+                return valueOf(name.toUpperCase(Locale.ROOT));
+            } catch (final IllegalArgumentException e) {
+                throw new IllegalArgumentException("Unknown armor " + name + ", expected binary, hex or base64");
+            }
+        }
+    }
+
+    private Armor() {
+    }
+
+    /**
+     * Print the data as rows of 16 space separated hex bytes, followed by a line break
+     *
+     * @param out where the dump will be printed
+     * @param X   the data
+     */
+    static void writeHexDump(final PrintStream out, final byte[] X) {
+        final int itemsPerLine = 16;
+        final byte[] block = new byte[BLOCK_SIZE];
+        int pos = 0;
+        for (int i = 0; i < X.length; i++) {
+            block[pos++] = HEX_DIGITS[(X[i] >> 4) & 0xf];
+            block[pos++] = HEX_DIGITS[X[i] & 0xf];
+            block[pos++] = ' ';
+            if (i % itemsPerLine == itemsPerLine - 1) {
+                block[pos++] = '\n';
+            }
+            if (pos > block.length - 4) {
+                out.write(block, 0, pos);
+                pos = 0;
+            }
+        }
+        block[pos++] = '\n';
+        out.write(block, 0, pos);
+    }
+
+    /**
+     * Guess the encoding of a key or signature file from its content: hex if it holds nothing but hex digits and
+     * whitespace, Base64 if it holds nothing but Base64 characters and whitespace, and binary otherwise.
+     * Binary keys and signatures are never mistaken for text, since they start with a byte that is not printable
+     * or are long enough to contain one.
+     *
+     * @param content the content of the file
+     * @return the encoding of the content
+     */
+    static Encoding detect(final byte[] content) {
+        boolean hex = content.length > 0;
+        for (final byte b : content) {
+            if (HEX_VALUES[b & 0xFF] == INVALID) {
+                hex = false;
+                break;
+            }
+        }
+        if (hex) {
+            return Encoding.HEX;
+        }
+        for (final byte b : content) {
+            if (HEX_VALUES[b & 0xFF] != WHITESPACE && !(b >= 'A' && b <= 'Z' || b >= 'a' && b <= 'z'
+                    || b >= '0' && b <= '9' || b == '+' || b == '/' || b == '=')) {
+                return Encoding.BINARY;
+            }
+        }
+        return content.length > 0 ? Encoding.BASE64 : Encoding.BINARY;
+    }
+
+    /**
+     * Print the data on a single line in the given encoding, hex for {@link Encoding#BINARY}
+     *
+     * @param out      where the data will be printed
+     * @param X        the data
+     * @param encoding the encoding
+     */
+    static void writeLine(final PrintStream out, final byte[] X, final Encoding encoding) {
+        if (encoding == Encoding.BASE64) {
+            final byte[] encoded = Base64.getEncoder().encode(X);
+            out.write(encoded, 0, encoded.length);
+        } else {
+            final byte[] block = new byte[Math.min(BLOCK_SIZE, 2 * X.length)];
+            for (int i = 0; i < X.length; i += block.length / 2) {
+                final int n = Math.min(block.length / 2, X.length - i);
+                toHex(X, i, n, block);
+                out.write(block, 0, 2 * n);
+            }
+        }
+        out.println();
+    }
+
+    /**
+     * Wrap a stream so that everything written to it is written in the given encoding, broken into lines.
+     * Closing the returned stream completes the encoding and closes the given stream.
+     *
+     * @param out      the stream receiving the encoded data
+     * @param encoding the encoding
+     * @return the stream accepting the binary data
+     */
+    static OutputStream encoding(final OutputStream out, final Encoding encoding) {
+        return switch (encoding) {
+            case BINARY -> out;
+            case HEX -> new HexOutputStream(out);
+            case BASE64 -> Base64.getMimeEncoder(LINE_LENGTH, new byte[]{'\n'}).wrap(new FilterOutputStream(out) {
+                @Override
+                public void write(final byte[] b, final int off, final int len) throws IOException {
+                    out.write(b, off, len);
+                }
+
+                @Override
+                public void close() throws IOException {
+                    // end the last line, like the hex encoding does
+                    out.write('\n');
+                    super.close();
+                }
+            });
+        };
+    }
+
+    /**
+     * Wrap a stream so that everything read from it is decoded from the given encoding, ignoring line breaks
+     *
+     * @param in       the stream of encoded data
+     * @param encoding the encoding
+     * @return the stream of binary data
+     */
+    static InputStream decoding(final InputStream in, final Encoding encoding) {
+        return switch (encoding) {
+            case BINARY -> in;
+            case HEX -> new HexInputStream(in);
+            case BASE64 -> Base64.getMimeDecoder().wrap(in);
+        };
+    }
+
+    /**
+     * Encode bytes of the data to hex digits
+     *
+     * @param X      the data
+     * @param offset the index of the first byte
+     * @param length the number of bytes
+     * @param to     where the 2 * length digits will be written, from index 0
+     */
+    private static void toHex(final byte[] X, final int offset, final int length, final byte[] to) {
+        for (int i = 0; i < length; i++) {
+            final int b = X[offset + i];
+            to[2 * i] = HEX_DIGITS[(b >> 4) & 0xf];
+            to[2 * i + 1] = HEX_DIGITS[b & 0xf];
+        }
+    }
+
+    /**
+     * Writes hex digits, {@link #LINE_LENGTH} of them per line.
+     */
+    private static final class HexOutputStream extends FilterOutputStream {
+        private final byte[] myBlock = new byte[BLOCK_SIZE];
+        private int myPosition;
+        private int myColumn;
+
+        private HexOutputStream(final OutputStream theOut) {
+            super(theOut);
+        }
+
+        @Override
+        public void write(final int b) throws IOException {
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(final byte[] b, final int off, final int len) throws IOException {
+            for (int i = off; i < off + len; i++) {
+                if (myPosition > myBlock.length - 4) {
+                    out.write(myBlock, 0, myPosition);
+                    myPosition = 0;
+                }
+                myBlock[myPosition++] = HEX_DIGITS[(b[i] >> 4) & 0xf];
+                myBlock[myPosition++] = HEX_DIGITS[b[i] & 0xf];
+                myColumn += 2;
+                if (myColumn == LINE_LENGTH) {
+                    myBlock[myPosition++] = '\n';
+                    myColumn = 0;
+                }
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            out.write(myBlock, 0, myPosition);
+            myPosition = 0;
+            out.flush();
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (myColumn != 0) {
+                myBlock[myPosition++] = '\n';
+                myColumn = 0;
+            }
+            super.close();
+        }
+    }
+
+    /**
+     * Reads pairs of hex digits, skipping whitespace, so both armored files and console dumps can be read back.
+     */
+    private static final class HexInputStream extends InputStream {
+        private final InputStream myIn;
+        private final byte[] myBlock = new byte[BLOCK_SIZE];
+        private int myPending = -1;
+
+        private HexInputStream(final InputStream theIn) {
+            this.myIn = theIn;
+        }
+
+        @Override
+        public int read() throws IOException {
+            final byte[] b = new byte[1];
+            return read(b, 0, 1) < 0 ? -1 : b[0] & 0xff;
+        }
+
+        @Override
+        public int read(final byte[] b, final int off, final int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            int written = 0;
+            while (written == 0) {
+                // never read more digits than fit into b, counting the digit left over from the last call
+                final int n = myIn.read(myBlock, 0, Math.min(myBlock.length, 2 * len - (myPending < 0 ? 0 : 1)));
+                if (n < 0) {
+                    if (myPending >= 0) {
+                        throw new IOException("Odd number of hex digits");
+                    }
+                    return -1;
+                }
+                for (int i = 0; i < n; i++) {
+                    final byte v = HEX_VALUES[myBlock[i] & 0xff];
+                    if (v == WHITESPACE) {
+                        continue;
+                    } else if (v == INVALID) {
+                        throw new IOException("Invalid hex character '" + (char) (myBlock[i] & 0xff) + "'");
+                    }
+                    if (myPending < 0) {
+                        myPending = v;
+                    } else {
+                        b[off + written++] = (byte) (myPending << 4 | v);
+                        myPending = -1;
+                    }
+                }
+            }
+            return written;
+        }
+
+        @Override
+        public void close() throws IOException {
+            myIn.close();
+        }
+    }
+}
@@ -0,0 +1,208 @@
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Runs many hash, encrypt and sign operations in one invocation, concurrently on a bounded number of threads.
+ * Entries come either from a manifest file or from every regular file below a directory.
+ * Every entry produces exactly one tab-separated result line:
+ * index, OK or FAIL, operation, input path, output path (or -), and the hash in hex (for -h) or the error.
+ *
+ * @author Yudong Lin
+ */
+final class BatchMode {
+    /**
+     * The operations that can be run in batch mode, named after their argument in {@link Main}
+     */
+    static final List<String> OPERATIONS = List.of("-h", "-e", "-ece", "-ecs");
+
+    private BatchMode() {
+    }
+
+    /**
+     * Read the entries of a manifest. Every line holds an operation, an input path and an output path
+     * (which is optional for -h), separated by tabs if the line has any and by whitespace otherwise.
+     * Empty lines and lines starting with # are skipped.
+     *
+     * @param manifest         the manifest file
+     * @param workingDirectory what relative paths in the manifest are resolved against
+     * @return the entries
+     * @throws IOException fail to read the manifest
+     */
+    static List<Entry> readManifest(final Path manifest, final Path workingDirectory) throws IOException {
+        final List<Entry> entries = new ArrayList<>();
+        for (final String line : Files.readAllLines(manifest)) {
+            final String trimmed = line.strip();
+            if (trimmed.isEmpty() || trimmed.startsWith("#")) {
+                continue;
+            }
+            final String[] fields = trimmed.split(trimmed.contains("\t") ? "\t" : "\\s+");
+            if (fields.length < 2 || fields.length > 3) {
+                throw new IllegalArgumentException("Invalid manifest line: " + line);
+            }
+            entries.add(new Entry(fields[0], workingDirectory.resolve(fields[1]), fields.length == 3 ? workingDirectory.resolve(fields[2]) : null));
+        }
+        return entries;
+    }
+
+    /**
+     * Create one entry for every regular file below a directory
+     *
+     * @param directory       the directory
+     * @param operation       the operation to run on every file
+     * @param outputDirectory where the results are written, mirroring the layout of the directory, may be null for -h
+     * @return the entries
+     * @throws IOException fail to list the directory
+     */
+    static List<Entry> listDirectory(final Path directory, final String operation, final Path outputDirectory) throws IOException {
+        final String suffix = operation.equals("-ecs") ? ".sig" : ".enc";
+        try (final Stream<Path> files = Files.walk(directory)) {
+            return files.filter(Files::isRegularFile).sorted().map(file -> new Entry(operation, file,
+                    outputDirectory == null || operation.equals("-h") ? null
+                            : outputDirectory.resolve(directory.relativize(file) + suffix)
+            )).toList();
+        }
+    }
+
+    /**
+     * Whether any of the entries needs a passphrase
+     *
+     * @param entries the entries
+     * @return whether a passphrase is needed
+     */
+    static boolean needsPassphrase(final List<Entry> entries) {
+        return entries.stream().anyMatch(e -> e.myOperation.equals("-e") || e.myOperation.equals("-ecs"));
+    }
+
+    /**
+     * Whether any of the entries needs a public key
+     *
+     * @param entries the entries
+     * @return whether a public key is needed
+     */
+    static boolean needsPublicKey(final List<Entry> entries) {
+        return entries.stream().anyMatch(e -> e.myOperation.equals("-ece"));
+    }
+
+    /**
+     * Run all entries and print one result line for each of them as soon as it is done.
+     * At most 2 * threads entries are submitted at any time, so a huge batch never opens or buffers more files than that.
+     *
+     * @param entries   the entries
+     * @param pw        the passphrase for -e and -ecs, may be null if no entry needs it
+     * @param publicKey the public key for -ece, may be null if no entry needs it
+     * @param threads   the number of threads
+     * @param out       where the result lines will be printed
+     * @throws InterruptedException interrupted while waiting for the entries
+     */
+    static void run(final List<Entry> entries, final byte[] pw, final byte[] publicKey, final int threads,
+                    final PrintStream out) throws InterruptedException {
+        final ExecutorService workers = Executors.newFixedThreadPool(threads);
+        final Semaphore inFlight = new Semaphore(2 * threads);
+        final PrivateKeyHandle signingKey = entries.stream().anyMatch(e -> e.myOperation.equals("-ecs"))
+                ? new PrivateKeyHandle(pw) : null;
+        try {
+            for (int i = 0; i < entries.size(); i++) {
+                final int index = i;
+                final Entry theEntry = entries.get(i);
+                inFlight.acquire();
+                workers.execute(() -> {
+                    try {
+                        out.println(index + "\tOK\t" + theEntry + "\t" + runEntry(theEntry, pw, publicKey, signingKey));
+                    } catch (final Exception e) {
+                        out.println(index + "\tFAIL\t" + theEntry + "\t"
+                                + (e.getClass().getSimpleName() + ": " + e.getMessage()).replaceAll("\\s+", " "));
+                    } finally {
+                        // every line as soon as it is ready, so that progress can be followed through a pipe
+                        out.flush();
+                        inFlight.release();
+                    }
+                });
+            }
+            workers.shutdown();
+            workers.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+        } finally {
+            workers.shutdownNow();
+            if (signingKey != null) {
+                signingKey.destroy();
+            }
+        }
+    }
+
+    /**
+     * Run a single entry
+     *
+     * @param theEntry   the entry
+     * @param pw         the passphrase
+     * @param publicKey  the public key
+     * @param signingKey the private key handle derived from the passphrase
+     * @return the hash in hex for -h, otherwise an empty string
+     * @throws IOException fail to read the input or to write the output
+     */
+    private static String runEntry(final Entry theEntry, final byte[] pw, final byte[] publicKey,
+                                   final PrivateKeyHandle signingKey) throws IOException {
+        final byte[] data = Files.readAllBytes(theEntry.myInput);
+        final byte[] result = switch (theEntry.myOperation) {
+            case "-h" -> Main.hash(data);
+            case "-e" -> ECDHIES.encrypt(data, pw);
+            case "-ece" -> EllipticCurves.encrypt(data, publicKey);
+            case "-ecs" -> EllipticCurveKeyPair.toByteArray(EllipticCurves.getSignature(data, signingKey));
+            default -> throw new IllegalArgumentException("Unsupported operation " + theEntry.myOperation);
+        };
+        if (theEntry.myOutput != null) {
+            final Path parent = theEntry.myOutput.toAbsolutePath().getParent();
+            if (parent != null) {
+                Files.createDirectories(parent);
+            }
+            Files.write(theEntry.myOutput, result);
+        }
+        return theEntry.myOperation.equals("-h") ? HexFormat.of().formatHex(result) : "";
+    }
+
+    /**
+     * One operation on one input file.
+     */
+    static final class Entry {
+        private final String myOperation;
+        private final Path myInput;
+        private final Path myOutput;
+
+        /**
+         * Create a new entry
+         *
+         * @param theOperation the operation, one of {@link #OPERATIONS}
+         * @param theInput     the input file
+         * @param theOutput    the output file, may be null if the result should not be saved
+         */
+        Entry(final String theOperation, final Path theInput, final Path theOutput) {
+            if (!OPERATIONS.contains(theOperation)) {
+                throw new IllegalArgumentException("Unsupported batch operation " + theOperation);
+            }
+            if (theOutput == null && !theOperation.equals("-h")) {
+                throw new IllegalArgumentException("Missing output path for " + theOperation + " " + theInput);
+            }
+            this.myOperation = theOperation;
+            this.myInput = theInput;
+            this.myOutput = theOutput;
+        }
+
+        /**
+         * The operation, input path and output path, separated by tabs
+         *
+         * @return the entry as part of a result line
+         */
+        @Override
+        public String toString() {
+            return myOperation + "\t" + myInput + "\t" + (myOutput == null ? "-" : myOutput);
+        }
+    }
+}
@@ -0,0 +1,308 @@
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * End-to-end throughput benchmark of the main operations, run with {@link Main} -bench.
+ * Every operation is run for every message size and thread count, first for a warmup period that is not measured
+ * and then for a measured period in which every thread records the latency of every call into its own histogram.
+ * The result is printed as a text table, and optionally written as JSON.
+ *
+ * @author Yudong Lin
+ */
+final class Benchmark {
+    static final List<String> OPERATIONS = List.of(
+            "hash", "encrypt", "decrypt", "ec-encrypt", "ec-decrypt", "ec-sign", "ec-verify"
+    );
+    private static final byte[] PASSPHRASE = "benchmark passphrase".getBytes();
+
+    private Benchmark() {
+    }
+
+    /**
+     * Run the benchmark
+     *
+     * @param operations    the operations to run, see {@link #OPERATIONS}
+     * @param sizes         the message sizes in bytes
+     * @param threadCounts  the thread counts
+     * @param warmupMillis  how long every combination is warmed up
+     * @param measureMillis how long every combination is measured
+     * @param out           where the text table will be printed
+     * @param jsonSavedTo   where the JSON report will be written, may be null
+     * @throws IOException fail to write the JSON report
+     * @throws IllegalArgumentException an operation is unknown
+     */
+    static void run(final List<String> operations, final int[] sizes, final int[] threadCounts, final long warmupMillis,
+                    final long measureMillis, final PrintStream out, final Path jsonSavedTo) throws IOException {
+        for (final String operation : operations) {
+            if (!OPERATIONS.contains(operation)) {
+                throw new IllegalArgumentException("Unknown benchmark operation " + operation + ", choose from " + String.join(",", OPERATIONS));
+            }
+        }
+        final EllipticCurveKeyPair keyPair = EllipticCurves.getSchnorrKeyPair(PASSPHRASE);
+        final List<Result> results = new ArrayList<>();
+        out.printf("%-12s %10s %8s %10s %12s %10s %10s %10s %10s%n",
+                "operation", "bytes", "threads", "ops", "ops/s", "MB/s", "p50 us", "p99 us", "p999 us");
+        for (final String operation : operations) {
+            for (final int size : sizes) {
+                final Runnable call = newCall(operation, Glossary.random(size * 8), keyPair);
+                for (final int threads : threadCounts) {
+                    measure(call, threads, warmupMillis);
+                    final LatencyHistogram histogram = measure(call, threads, measureMillis);
+                    final Result theResult = new Result(operation, size, threads, histogram);
+                    results.add(theResult);
+                    out.println(theResult);
+                    out.flush();
+                }
+            }
+        }
+        if (jsonSavedTo != null) {
+            final StringBuilder json = new StringBuilder("[\n");
+            for (int i = 0; i < results.size(); i++) {
+                json.append("  ").append(results.get(i).toJson()).append(i + 1 < results.size() ? ",\n" : "\n");
+            }
+            Files.writeString(jsonSavedTo, json.append("]\n"));
+        }
+    }
+
+    /**
+     * Prepare a single call of an operation on a given message, doing all the setup it needs up front
+     *
+     * @param operation the operation
+     * @param message   the message
+     * @param keyPair   the key pair for the elliptic curve operations
+     * @return the call
+     */
+    private static Runnable newCall(final String operation, final byte[] message, final EllipticCurveKeyPair keyPair) {
+        final byte[] publicKey = keyPair.getPublicKey();
+        switch (operation) {
+            case "hash":
+                return () -> Main.hash(message);
+            case "encrypt":
+                return () -> ECDHIES.encrypt(message, PASSPHRASE);
+            case "decrypt": {
+                final byte[] cryptogram = ECDHIES.encrypt(message, PASSPHRASE);
+                return () -> ECDHIES.decrypt(cryptogram, PASSPHRASE);
+            }
+            case "ec-encrypt":
+                return () -> EllipticCurves.encrypt(message, publicKey);
+            case "ec-decrypt": {
+                final byte[] cryptogram = EllipticCurves.encrypt(message, publicKey);
+                return () -> EllipticCurves.decrypt(cryptogram, PASSPHRASE);
+            }
+            case "ec-sign":
+                return () -> EllipticCurves.getSignature(message, PASSPHRASE);
+            case "ec-verify": {
+                final byte[] signature;
+                try {
+                    signature = EllipticCurveKeyPair.toByteArray(EllipticCurves.getSignature(message, PASSPHRASE));
+                } catch (final IOException e) {
+                    throw new IllegalStateException(e);
+                }
+                return () -> {
+                    try {
+                        if (!EllipticCurves.verifySignature(signature, message, publicKey)) {
+                            throw new IllegalStateException("A valid signature did not verify");
+                        }
+                    } catch (final IOException | ClassNotFoundException e) {
+                        throw new IllegalStateException(e);
+                    }
+                };
+            }
+            default:
+                throw new IllegalArgumentException("Unknown benchmark operation " + operation);
+        }
+    }
+
+    /**
+     * Run a call on the given number of threads until the period is over, or until a call fails
+     *
+     * @param call    the call
+     * @param threads the number of threads
+     * @param millis  the period
+     * @return the latencies of all calls of all threads, and the wall clock time they took
+     * @throws IllegalStateException a call failed, with the failure as its cause
+     */
+    private static LatencyHistogram measure(final Runnable call, final int threads, final long millis) {
+        final LatencyHistogram[] histograms = new LatencyHistogram[threads];
+        final Throwable[] failures = new Throwable[threads];
+        final AtomicBoolean failed = new AtomicBoolean();
+        final CountDownLatch start = new CountDownLatch(1);
+        final Thread[] workers = new Thread[threads];
+        for (int i = 0; i < threads; i++) {
+            final int index = i;
+            final LatencyHistogram histogram = new LatencyHistogram();
+            histograms[i] = histogram;
+            workers[i] = new Thread(() -> {
+                try {
+                    start.await();
+                } catch (final InterruptedException e) {
+                    return;
+                }
+                final long deadline = System.nanoTime() + millis * 1_000_000;
+                long now;
+                try {
+                    do {
+                        final long begin = System.nanoTime();
+                        call.run();
+                        now = System.nanoTime();
+                        histogram.record(now - begin);
+                    } while (now < deadline && !failed.get());
+                } catch (final RuntimeException | Error e) {
+                    failures[index] = e;
+                    failed.set(true);
+                }
+            }, "benchmark-" + i);
+            workers[i].start();
+        }
+        final long begin = System.nanoTime();
+        start.countDown();
+        final LatencyHistogram total = new LatencyHistogram();
+        for (int i = 0; i < threads; i++) {
+            try {
+                workers[i].join();
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Interrupted while benchmarking", e);
+            }
+            total.add(histograms[i]);
+        }
+        // the workers have been joined, so their failures are visible here
+        for (final Throwable failure : failures) {
+            if (failure != null) {
+                throw new IllegalStateException("A benchmark call failed: " + failure, failure);
+            }
+        }
+        total.myElapsedNanos = System.nanoTime() - begin;
+        return total;
+    }
+
+    /**
+     * The outcome of one operation, message size and thread count.
+     */
+    private static final class Result {
+        private final String myOperation;
+        private final int mySize;
+        private final int myThreads;
+        private final long myCount;
+        private final double myOpsPerSecond;
+        private final double myMegabytesPerSecond;
+        private final double[] myPercentilesMicros;
+
+        private Result(final String theOperation, final int theSize, final int theThreads,
+                       final LatencyHistogram theHistogram) {
+            this.myOperation = theOperation;
+            this.mySize = theSize;
+            this.myThreads = theThreads;
+            this.myCount = theHistogram.getCount();
+            this.myOpsPerSecond = myCount * 1e9 / theHistogram.myElapsedNanos;
+            this.myMegabytesPerSecond = myOpsPerSecond * theSize / 1_000_000.0;
+            this.myPercentilesMicros = new double[]{
+                    theHistogram.getPercentile(50) / 1000.0,
+                    theHistogram.getPercentile(99) / 1000.0,
+                    theHistogram.getPercentile(99.9) / 1000.0
+            };
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.ROOT, "%-12s %10d %8d %10d %12.1f %10.3f %10.1f %10.1f %10.1f",
+                    myOperation, mySize, myThreads, myCount, myOpsPerSecond, myMegabytesPerSecond,
+                    myPercentilesMicros[0], myPercentilesMicros[1], myPercentilesMicros[2]);
+        }
+
+        private String toJson() {
+            return String.format(Locale.ROOT, "{\"operation\": \"%s\", \"bytes\": %d, \"threads\": %d, \"ops\": %d, "
+                            + "\"opsPerSecond\": %.3f, \"megabytesPerSecond\": %.6f, "
+                            + "\"latencyMicros\": {\"p50\": %.3f, \"p99\": %.3f, \"p999\": %.3f}}",
+                    myOperation, mySize, myThreads, myCount, myOpsPerSecond, myMegabytesPerSecond,
+                    myPercentilesMicros[0], myPercentilesMicros[1], myPercentilesMicros[2]);
+        }
+    }
+
+    /**
+     * A log-linear histogram of latencies in nanoseconds: every power of two is split into SUB_BUCKETS buckets,
+     * so any recorded value is off by at most 1/SUB_BUCKETS of itself.
+     */
+    private static final class LatencyHistogram {
+        private static final int SUB_BUCKET_BITS = 4;
+        private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+        private final long[] myCounts = new long[64 * SUB_BUCKETS];
+        private long myCount;
+        /**
+         * The wall clock time of the measurement, which includes the last call of every thread past the deadline
+         */
+        private long myElapsedNanos;
+
+        private void record(final long nanos) {
+            myCounts[bucketOf(Math.max(nanos, 0))]++;
+            myCount++;
+        }
+
+        private void add(final LatencyHistogram theOther) {
+            for (int i = 0; i < myCounts.length; i++) {
+                myCounts[i] += theOther.myCounts[i];
+            }
+            myCount += theOther.myCount;
+        }
+
+        private long getCount() {
+            return myCount;
+        }
+
+        /**
+         * Get the upper bound of the bucket holding the given percentile
+         */
+        private long getPercentile(final double percentile) {
+            if (myCount == 0) {
+                return 0;
+            }
+            final long rank = (long) Math.ceil(percentile / 100.0 * myCount);
+            long seen = 0;
+            for (int i = 0; i < myCounts.length; i++) {
+                seen += myCounts[i];
+                if (seen >= rank) {
+                    return upperBoundOf(i);
+                }
+            }
+            return upperBoundOf(myCounts.length - 1);
+        }
+
+        private static int bucketOf(final long nanos) {
+            if (nanos < SUB_BUCKETS) {
+                return (int) nanos;
+            }
+            final int exponent = 63 - Long.numberOfLeadingZeros(nanos) - SUB_BUCKET_BITS;
+            return (exponent + 1) * SUB_BUCKETS + (int) ((nanos >>> exponent) - SUB_BUCKETS);
+        }
+
+        private static long upperBoundOf(final int bucket) {
+            if (bucket < SUB_BUCKETS) {
+                return bucket;
+            }
+            final int exponent = bucket / SUB_BUCKETS - 1;
+            return ((long) (bucket % SUB_BUCKETS + SUB_BUCKETS + 1) << exponent) - 1;
+        }
+    }
+
+    /**
+     * Parse a comma separated list of positive integers, such as "64,1024,65536"
+     *
+     * @param list the list
+     * @return the integers
+     */
+    static int[] parseList(final String list) {
+        final int[] values = Arrays.stream(list.split(",")).map(String::strip).mapToInt(Integer::parseInt).toArray();
+        if (values.length == 0 || Arrays.stream(values).anyMatch(v -> v <= 0)) {
+            throw new IllegalArgumentException("Expected a comma separated list of positive integers: " + list);
+        }
+        return values;
+    }
+}
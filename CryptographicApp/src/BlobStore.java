@@ -0,0 +1,449 @@
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Stream;
+
+/**
+ * A local, content-addressed store of encrypted blobs with deduplication.
+ * <p>
+ * A blob is split into chunks of {@link #CHUNK_SIZE} bytes. Every chunk is encrypted under its own key
+ * KMACXOF256(store key, chunk, 256, "BK"), derived from its content (convergent encryption), with the key stream
+ * KMACXOF256(chunk key, "", 8 * |chunk|, "BE"), and stored once under its address KMACXOF256(store key, chunk key, 256, "BA").
+ * The list of chunk keys and lengths of a blob, its recipe, is stored as a chunk too, and the key of the recipe is the
+ * id of the blob. Storing data that is already in the store therefore neither writes nor encrypts anything,
+ * and reading a chunk back is verified by deriving its key again.
+ * <p>
+ * The index file is memory-mapped: a header (magic, version, capacity and number of used slots) followed by a hash
+ * table with open addressing and linear probing, whose slots hold the address, the reference count and the stored
+ * size of a chunk. A chunk is referenced once by every recipe listing it, and a recipe once by every blob stored
+ * with it. Chunks whose count drops to zero stay until {@link #collectGarbage()} removes them.
+ * <p>
+ * Only one process may use a store at a time, which is enforced with a file lock.
+ *
+ * @author Yudong Lin
+ */
+final class BlobStore implements Closeable {
+    static final int CHUNK_SIZE = 1 << 20;
+    static final int ID_LEN = 32;
+    private static final int INDEX_MAGIC = 0x424c4f42; // "BLOB"
+    private static final int INDEX_VERSION = 1;
+    private static final int HEADER_SIZE = 16;
+    private static final int INITIAL_CAPACITY = 1024;
+    /**
+     * A slot: address, used flag, reference count and stored size
+     */
+    private static final int SLOT_SIZE = ID_LEN + 4 + 4 + 8;
+    private static final int USED_OFFSET = ID_LEN;
+    private static final int REFERENCES_OFFSET = ID_LEN + 4;
+    private static final int SIZE_OFFSET = ID_LEN + 8;
+
+    private final Path myDirectory;
+    private final byte[] myStoreKey;
+    private final FileChannel myLockChannel;
+    private final FileLock myLock;
+    private MappedByteBuffer myIndex;
+    private int myCapacity;
+    private int myUsed;
+
+    private BlobStore(final Path theDirectory, final byte[] theStoreKey, final FileChannel theLockChannel, final FileLock theLock) {
+        this.myDirectory = theDirectory;
+        this.myStoreKey = theStoreKey;
+        this.myLockChannel = theLockChannel;
+        this.myLock = theLock;
+    }
+
+    /**
+     * Open a store, creating it if the directory does not hold one yet
+     *
+     * @param directory the directory of the store
+     * @param pw        the passphrase the store key is derived from
+     * @return the store, which has to be closed
+     * @throws IOException fail to create or to read the store, or the store is in use
+     */
+    static BlobStore open(final Path directory, final byte[] pw) throws IOException {
+        Files.createDirectories(directory.resolve("chunks"));
+        final FileChannel lockChannel = FileChannel.open(directory.resolve("lock"), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        FileLock lock = null;
+        try {
+            lock = lockChannel.tryLock();
+        } catch (final OverlappingFileLockException e) {
+            // held by this process
+        }
+        if (lock == null) {
+            lockChannel.close();
+            throw new IOException("The blob store " + directory + " is in use");
+        }
+        final BlobStore theStore = new BlobStore(directory, Keccak.KMACXOF256(pw, new byte[]{}, 256, "BS"), lockChannel, lock);
+        try {
+            if (Files.exists(theStore.getIndexPath())) {
+                theStore.map();
+            } else {
+                theStore.rebuildIndex(INITIAL_CAPACITY, false);
+            }
+        } catch (final IOException | RuntimeException e) {
+            theStore.close();
+            throw e;
+        }
+        return theStore;
+    }
+
+    /**
+     * Store a blob
+     *
+     * @param data the content of the blob, read up to its end
+     * @return the id of the blob, which is needed to read it back
+     * @throws IOException fail to read the data or to write the store
+     */
+    synchronized byte[] put(final InputStream data) throws IOException {
+        final ByteArrayOutputStream recipe = new ByteArrayOutputStream();
+        final DataOutputStream theRecipe = new DataOutputStream(recipe);
+        final List<byte[]> keys = new ArrayList<>();
+        byte[] chunk;
+        while ((chunk = data.readNBytes(CHUNK_SIZE)).length > 0) {
+            final byte[] key = putChunk(chunk);
+            keys.add(key);
+            theRecipe.write(key);
+            theRecipe.writeInt(chunk.length);
+        }
+        final byte[] id = putChunk(recipe.toByteArray());
+        // a recipe holds references to its chunks while it is referenced itself
+        if (addReference(address(id), 1) == 1) {
+            for (final byte[] key : keys) {
+                addReference(address(key), 1);
+            }
+        }
+        myIndex.force();
+        return id;
+    }
+
+    /**
+     * Read a blob
+     *
+     * @param id  the id of the blob
+     * @param out where the content of the blob will be written
+     * @throws IOException the blob is not in the store or is damaged
+     */
+    synchronized void get(final byte[] id, final OutputStream out) throws IOException {
+        for (final Entry theEntry : readRecipe(id)) {
+            out.write(getChunk(theEntry.myKey, theEntry.myLength));
+        }
+        out.flush();
+    }
+
+    /**
+     * Remove a reference to a blob. Its chunks are only removed by {@link #collectGarbage()},
+     * once nothing references them anymore.
+     *
+     * @param id the id of the blob
+     * @return false if the blob was not in the store
+     * @throws IOException fail to read the blob
+     */
+    synchronized boolean delete(final byte[] id) throws IOException {
+        final int slot = find(address(id));
+        if (id.length != ID_LEN || slot < 0 || getReferences(slot) == 0) {
+            return false;
+        }
+        final List<Entry> entries = readRecipe(id);
+        if (addReference(address(id), -1) == 0) {
+            for (final Entry theEntry : entries) {
+                addReference(address(theEntry.myKey), -1);
+            }
+        }
+        myIndex.force();
+        return true;
+    }
+
+    /**
+     * Remove every chunk nothing references, including chunk files a crash left without an index entry
+     *
+     * @return the number of chunk files removed
+     * @throws IOException fail to rewrite the index or to delete the chunks
+     */
+    synchronized int collectGarbage() throws IOException {
+        // drop the dead entries first, so a crash in between only leaves files without an entry, which the next run removes
+        rebuildIndex(myCapacity, true);
+        final Set<String> live = new HashSet<>();
+        for (int slot = 0; slot < myCapacity; slot++) {
+            if (isUsed(slot)) {
+                live.add(HexFormat.of().formatHex(getAddress(slot)));
+            }
+        }
+        int removed = 0;
+        try (final Stream<Path> files = Files.walk(myDirectory.resolve("chunks"))) {
+            for (final Path file : files.filter(Files::isRegularFile).toList()) {
+                if (!live.contains(file.getFileName().toString())) {
+                    Files.delete(file);
+                    removed++;
+                }
+            }
+        }
+        return removed;
+    }
+
+    /**
+     * Count the chunks in the index, referenced or not, and the bytes they take up
+     *
+     * @return the number of chunks and their total stored size
+     */
+    synchronized long[] getStatistics() {
+        long chunks = 0;
+        long bytes = 0;
+        for (int slot = 0; slot < myCapacity; slot++) {
+            if (isUsed(slot)) {
+                chunks++;
+                bytes += myIndex.getLong(slotOffset(slot) + SIZE_OFFSET);
+            }
+        }
+        return new long[]{chunks, bytes};
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (myIndex != null) {
+            myIndex.force();
+            myIndex = null;
+        }
+        Arrays.fill(myStoreKey, (byte) 0);
+        myLock.release();
+        myLockChannel.close();
+    }
+
+    /**
+     * Store a chunk unless it is stored already, without adding a reference to it
+     *
+     * @param chunk the content of the chunk
+     * @return the key of the chunk
+     */
+    private byte[] putChunk(final byte[] chunk) throws IOException {
+        final byte[] key = Keccak.KMACXOF256(myStoreKey, chunk, ID_LEN * 8, "BK");
+        final byte[] address = address(key);
+        if (find(address) >= 0) {
+            return key;
+        }
+        final byte[] encrypted = crypt(key, chunk);
+        final Path file = getChunkPath(address);
+        Files.createDirectories(file.getParent());
+        final Path temporary = file.resolveSibling(file.getFileName() + ".tmp");
+        Files.write(temporary, encrypted);
+        Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        insert(address, encrypted.length);
+        return key;
+    }
+
+    /**
+     * Read, decrypt and verify a chunk
+     */
+    private byte[] getChunk(final byte[] key, final int length) throws IOException {
+        final Path file = getChunkPath(address(key));
+        if (!Files.exists(file)) {
+            throw new IOException("The chunk " + file.getFileName() + " is missing");
+        }
+        final byte[] chunk = crypt(key, Files.readAllBytes(file));
+        if (chunk.length != length || !Arrays.equals(Keccak.KMACXOF256(myStoreKey, chunk, ID_LEN * 8, "BK"), key)) {
+            throw new IOException("The chunk " + file.getFileName() + " is damaged");
+        }
+        return chunk;
+    }
+
+    /**
+     * Encrypt or decrypt a chunk with its key stream
+     */
+    private static byte[] crypt(final byte[] key, final byte[] data) {
+        final byte[] result = new byte[data.length];
+        Keccak.newKMACXOF256(key, "BE").squeeze(result, 0, result.length);
+        for (int i = 0; i < result.length; i++) {
+            result[i] ^= data[i];
+        }
+        return result;
+    }
+
+    private List<Entry> readRecipe(final byte[] id) throws IOException {
+        if (id.length != ID_LEN) {
+            throw new IllegalArgumentException("A blob id has " + ID_LEN + " bytes!");
+        }
+        final int slot = find(address(id));
+        if (slot < 0 || getReferences(slot) == 0) {
+            throw new IOException("The blob is not in the store");
+        }
+        final Path file = getChunkPath(address(id));
+        final byte[] recipe = crypt(id, Files.readAllBytes(file));
+        if (!Arrays.equals(Keccak.KMACXOF256(myStoreKey, recipe, ID_LEN * 8, "BK"), id)) {
+            throw new IOException("The blob is damaged, or the passphrase is wrong");
+        }
+        final DataInputStream in = new DataInputStream(new ByteArrayInputStream(recipe));
+        final List<Entry> entries = new ArrayList<>();
+        while (in.available() > 0) {
+            final byte[] key = in.readNBytes(ID_LEN);
+            entries.add(new Entry(key, in.readInt()));
+        }
+        return entries;
+    }
+
+    private byte[] address(final byte[] key) {
+        return Keccak.KMACXOF256(myStoreKey, key, ID_LEN * 8, "BA");
+    }
+
+    private Path getChunkPath(final byte[] address) {
+        final String name = HexFormat.of().formatHex(address);
+        return myDirectory.resolve("chunks").resolve(name.substring(0, 2)).resolve(name);
+    }
+
+    private Path getIndexPath() {
+        return myDirectory.resolve("index");
+    }
+
+    /**
+     * Find the slot of an address
+     *
+     * @return the slot, or -(empty slot) - 1 where it would be inserted
+     */
+    private int find(final byte[] address) {
+        int slot = (getInt(address) & 0x7fffffff) & (myCapacity - 1);
+        while (isUsed(slot)) {
+            if (Arrays.equals(getAddress(slot), address)) {
+                return slot;
+            }
+            slot = (slot + 1) & (myCapacity - 1);
+        }
+        return -slot - 1;
+    }
+
+    private void insert(final byte[] address, final long size) throws IOException {
+        if (4 * (myUsed + 1) > 3 * myCapacity) {
+            rebuildIndex(2 * myCapacity, false);
+        }
+        final int slot = -find(address) - 1;
+        final int offset = slotOffset(slot);
+        myIndex.put(offset, address);
+        myIndex.putInt(offset + REFERENCES_OFFSET, 0);
+        myIndex.putLong(offset + SIZE_OFFSET, size);
+        myIndex.putInt(offset + USED_OFFSET, 1);
+        myIndex.putInt(12, ++myUsed);
+    }
+
+    /**
+     * Add to the reference count of a stored chunk
+     *
+     * @return the new reference count
+     */
+    private int addReference(final byte[] address, final int delta) {
+        final int slot = find(address);
+        if (slot < 0) {
+            throw new IllegalStateException("The chunk is not in the index");
+        }
+        final int references = Math.max(0, getReferences(slot) + delta);
+        myIndex.putInt(slotOffset(slot) + REFERENCES_OFFSET, references);
+        return references;
+    }
+
+    /**
+     * Write a new index with the given capacity to a temporary file, move it into place and map it
+     *
+     * @param capacity      the number of slots, a power of two
+     * @param onlyReferenced whether to drop the chunks nothing references
+     */
+    private void rebuildIndex(final int capacity, final boolean onlyReferenced) throws IOException {
+        final List<byte[]> addresses = new ArrayList<>();
+        final List<int[]> references = new ArrayList<>();
+        final List<Long> sizes = new ArrayList<>();
+        for (int slot = 0; myIndex != null && slot < myCapacity; slot++) {
+            if (isUsed(slot) && (!onlyReferenced || getReferences(slot) > 0)) {
+                addresses.add(getAddress(slot));
+                references.add(new int[]{getReferences(slot)});
+                sizes.add(myIndex.getLong(slotOffset(slot) + SIZE_OFFSET));
+            }
+        }
+        final Path temporary = getIndexPath().resolveSibling("index.tmp");
+        try (final FileChannel theChannel = FileChannel.open(temporary, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            final MappedByteBuffer theIndex = theChannel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE + (long) capacity * SLOT_SIZE);
+            theIndex.order(ByteOrder.BIG_ENDIAN);
+            theIndex.putInt(0, INDEX_MAGIC);
+            theIndex.putInt(4, INDEX_VERSION);
+            theIndex.putInt(8, capacity);
+            theIndex.putInt(12, 0);
+            theIndex.force();
+        }
+        Files.move(temporary, getIndexPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        map();
+        for (int i = 0; i < addresses.size(); i++) {
+            insert(addresses.get(i), sizes.get(i));
+            addReference(addresses.get(i), references.get(i)[0]);
+        }
+        myIndex.force();
+    }
+
+    /**
+     * Map the index file and check its header
+     */
+    private void map() throws IOException {
+        try (final FileChannel theChannel = FileChannel.open(getIndexPath(), StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            final MappedByteBuffer theIndex = theChannel.map(FileChannel.MapMode.READ_WRITE, 0, theChannel.size());
+            if (theChannel.size() < HEADER_SIZE || theIndex.getInt(0) != INDEX_MAGIC || theIndex.getInt(4) != INDEX_VERSION) {
+                throw new IOException("The blob store index is damaged or of an unknown version");
+            }
+            final int capacity = theIndex.getInt(8);
+            if (Integer.bitCount(capacity) != 1 || theChannel.size() != HEADER_SIZE + (long) capacity * SLOT_SIZE) {
+                throw new IOException("The blob store index is damaged");
+            }
+            this.myIndex = theIndex;
+            this.myCapacity = capacity;
+            this.myUsed = theIndex.getInt(12);
+        }
+    }
+
+    private static int slotOffset(final int slot) {
+        return HEADER_SIZE + slot * SLOT_SIZE;
+    }
+
+    private boolean isUsed(final int slot) {
+        return myIndex.getInt(slotOffset(slot) + USED_OFFSET) != 0;
+    }
+
+    private int getReferences(final int slot) {
+        return myIndex.getInt(slotOffset(slot) + REFERENCES_OFFSET);
+    }
+
+    private byte[] getAddress(final int slot) {
+        final byte[] address = new byte[ID_LEN];
+        myIndex.get(slotOffset(slot), address);
+        return address;
+    }
+
+    private static int getInt(final byte[] bytes) {
+        return (bytes[0] & 0xff) << 24 | (bytes[1] & 0xff) << 16 | (bytes[2] & 0xff) << 8 | bytes[3] & 0xff;
+    }
+
+    /**
+     * A chunk of a recipe.
+     */
+    private static final class Entry {
+        private final byte[] myKey;
+        private final int myLength;
+
+        private Entry(final byte[] theKey, final int theLength) {
+            this.myKey = theKey;
+            this.myLength = theLength;
+        }
+    }
+}
@@ -0,0 +1,214 @@
+import java.io.*;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFileAttributeView;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.nio.file.attribute.UserPrincipal;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+
+import jdk.net.ExtendedSocketOptions;
+
+/**
+ * A long-running daemon that serves the operations of {@link Main} over a Unix domain socket,
+ * so that repeated calls from shell scripts skip JVM startup and run on already warmed up code.
+ * <p>
+ * Protocol, all integers are 4-byte big-endian: a request is the number of arguments followed by every argument
+ * as its length and its UTF-8 bytes, exactly as they would be passed to {@link Main}, and then the working directory
+ * of the client the same way, which the default key store and relative paths in a manifest are resolved against. The response is a status
+ * (0 on success, 1 on failure) followed by the length and the UTF-8 bytes of the printed output or the error message.
+ * A connection may send any number of requests one after another.
+ *
+ * @author Yudong Lin
+ */
+final class CryptoDaemon {
+    private static final int MAX_ARGUMENTS = 1024;
+    private static final int MAX_ARGUMENT_LENGTH = 1 << 20;
+    /**
+     * Arguments followed by a path, which the client turns into absolute paths since the daemon has its own working directory
+     */
+    private static final List<String> PATH_ARGUMENTS = List.of("-f", "-o", "-o2", "-keyp", "-manifest", "-dir", "-index", "-store", "-keystore");
+
+    private CryptoDaemon() {
+    }
+
+    /**
+     * Listen on the given socket path and serve every connection on its own virtual thread,
+     * or on a pooled platform thread when the runtime does not support virtual threads.
+     * The socket is only accessible to the user running the daemon, and connections from any other user are refused,
+     * since a request can read and write any file the daemon can.
+     *
+     * @param socketPath          where the socket will be created
+     * @param verifyCacheCapacity how many verification results are remembered, 0 to remember none
+     * @param verifyCacheMillis   how long a verification result is remembered, in milliseconds
+     * @throws IOException fail to create the socket
+     */
+    static void serve(final Path socketPath, final int verifyCacheCapacity, final long verifyCacheMillis) throws IOException {
+        if (Files.isRegularFile(socketPath)) {
+            throw new IOException("Refusing to replace the regular file " + socketPath);
+        }
+        Files.deleteIfExists(socketPath);
+        EllipticCurves.enableEphemeralKeyPool(64);
+        if (verifyCacheCapacity > 0) {
+            EllipticCurves.enableVerificationCache(verifyCacheCapacity, verifyCacheMillis);
+        }
+        final ExecutorService connections = CryptoService.newVirtualThreadExecutor();
+        try (final ServerSocketChannel server = ServerSocketChannel.open(StandardProtocolFamily.UNIX)) {
+            server.bind(UnixDomainSocketAddress.of(socketPath));
+            // the daemon normally runs until it is killed, so the socket is removed by a shutdown hook
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                try {
+                    Files.deleteIfExists(socketPath);
+                } catch (final IOException e) {
+                    System.err.println("Cannot remove the socket: " + e.getMessage());
+                }
+            }, "crypto-daemon-cleanup"));
+            if (Files.getFileStore(socketPath).supportsFileAttributeView(PosixFileAttributeView.class)) {
+                Files.setPosixFilePermissions(socketPath, PosixFilePermissions.fromString("rw-------"));
+            }
+            // checked on every connection as well, since someone may connect before the permissions are restricted
+            final UserPrincipal owner = Files.getOwner(socketPath);
+            System.out.println("Listening on " + socketPath);
+            while (true) {
+                final SocketChannel client = server.accept();
+                final UserPrincipal peer;
+                try {
+                    peer = client.getOption(ExtendedSocketOptions.SO_PEERCRED).user();
+                } catch (final IOException e) {
+                    // the client may already be gone, which must not take the daemon down
+                    System.err.println("Cannot identify a connection: " + e.getMessage());
+                    client.close();
+                    continue;
+                }
+                if (!peer.equals(owner)) {
+                    System.err.println("Refusing a connection from " + peer.getName());
+                    client.close();
+                    continue;
+                }
+                connections.execute(() -> handle(client));
+            }
+        } finally {
+            connections.shutdownNow();
+            EllipticCurves.disableEphemeralKeyPool();
+            EllipticCurves.disableVerificationCache();
+            Files.deleteIfExists(socketPath);
+        }
+    }
+
+    /**
+     * Serve every request of a connection until the client closes it
+     *
+     * @param client the connection
+     */
+    private static void handle(final SocketChannel client) {
+        try (client;
+             final DataInputStream in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(client)));
+             final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(client)))) {
+            String[] args;
+            while ((args = readRequest(in)) != null) {
+                final Path workingDirectory = Path.of(readString(in));
+                final ByteArrayOutputStream printed = new ByteArrayOutputStream();
+                int status = 0;
+                try (final PrintStream printedStream = new PrintStream(printed, true, StandardCharsets.UTF_8)) {
+                    if (!workingDirectory.isAbsolute()) {
+                        throw new IllegalArgumentException("The working directory of the client has to be absolute");
+                    }
+                    Main.run(args, printedStream, workingDirectory);
+                } catch (final Exception e) {
+                    status = 1;
+                    printed.reset();
+                    printed.writeBytes(String.valueOf(e.getMessage()).getBytes(StandardCharsets.UTF_8));
+                }
+                out.writeInt(status);
+                out.writeInt(printed.size());
+                printed.writeTo(out);
+                out.flush();
+            }
+        } catch (final IOException e) {
+            System.err.println("Connection failed: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Read the arguments of one request
+     *
+     * @param in the connection
+     * @return the arguments, or null if the client has closed the connection
+     * @throws IOException the request is malformed
+     */
+    private static String[] readRequest(final DataInputStream in) throws IOException {
+        final int count;
+        try {
+            count = in.readInt();
+        } catch (final EOFException e) {
+            return null;
+        }
+        if (count < 0 || count > MAX_ARGUMENTS) {
+            throw new IOException("Invalid number of arguments: " + count);
+        }
+        final String[] args = new String[count];
+        for (int i = 0; i < count; i++) {
+            args[i] = readString(in);
+        }
+        return args;
+    }
+
+    /**
+     * Read one length-prefixed UTF-8 string of a request
+     *
+     * @param in the connection
+     * @return the string
+     * @throws IOException the string is malformed or cut off
+     */
+    private static String readString(final DataInputStream in) throws IOException {
+        final int length = in.readInt();
+        if (length < 0 || length > MAX_ARGUMENT_LENGTH) {
+            throw new IOException("Invalid argument length: " + length);
+        }
+        final byte[] bytes = in.readNBytes(length);
+        if (bytes.length < length) {
+            throw new EOFException("The request is cut off");
+        }
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Send the given arguments to the daemon listening on the given socket path and print its response
+     *
+     * @param socketPath where the daemon is listening
+     * @param args       the input arguments, exactly as they would be passed to {@link Main}
+     * @return the status of the response, to be used as the exit code
+     * @throws IOException fail to talk to the daemon
+     */
+    static int forward(final Path socketPath, final String[] args) throws IOException {
+        try (final SocketChannel daemon = SocketChannel.open(UnixDomainSocketAddress.of(socketPath));
+             final DataInputStream in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(daemon)));
+             final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(daemon)))) {
+            out.writeInt(args.length);
+            for (int i = 0; i < args.length; i++) {
+                final boolean isPath = i > 0 && PATH_ARGUMENTS.contains(args[i - 1]) && !args[i].equals("-");
+                final byte[] arg = (isPath ? Path.of(args[i]).toAbsolutePath().toString() : args[i]).getBytes(StandardCharsets.UTF_8);
+                out.writeInt(arg.length);
+                out.write(arg);
+            }
+            final byte[] workingDirectory = Path.of("").toAbsolutePath().toString().getBytes(StandardCharsets.UTF_8);
+            out.writeInt(workingDirectory.length);
+            out.write(workingDirectory);
+            out.flush();
+            final int status = in.readInt();
+            final String printed = new String(in.readNBytes(in.readInt()), StandardCharsets.UTF_8);
+            if (status == 0) {
+                System.out.print(printed);
+            } else {
+                System.err.println(printed);
+            }
+            return status;
+        }
+    }
+}
@@ -0,0 +1,226 @@
+import jdk.jfr.*;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Low-overhead counters and JDK Flight Recorder events for the cryptographic hot paths.
+ * The counters are plain LongAdders that are always on; the events are only recorded while a flight recording
+ * is running, e.g. with -XX:StartFlightRecording, and cost a single enabled check otherwise.
+ * Besides the per-call events, a crypto.Counters event with the totals of all counters is emitted every second.
+ *
+ * @author Yudong Lin
+ */
+final class CryptoMetrics {
+    static final LongAdder KECCAK_PERMUTATIONS = new LongAdder();
+    static final LongAdder KECCAK_ABSORBED_BYTES = new LongAdder();
+    static final LongAdder SCALAR_MULTIPLICATIONS = new LongAdder();
+    static final LongAdder POINT_ADDITIONS = new LongAdder();
+    static final LongAdder MODULAR_INVERSIONS = new LongAdder();
+    static final LongAdder VERIFICATION_CACHE_HITS = new LongAdder();
+    static final LongAdder VERIFICATION_CACHE_MISSES = new LongAdder();
+
+    static {
+        FlightRecorder.addPeriodicEvent(CountersEvent.class, () -> {
+            final CountersEvent event = new CountersEvent();
+            event.keccakPermutations = KECCAK_PERMUTATIONS.sum();
+            event.keccakAbsorbedBytes = KECCAK_ABSORBED_BYTES.sum();
+            event.scalarMultiplications = SCALAR_MULTIPLICATIONS.sum();
+            event.pointAdditions = POINT_ADDITIONS.sum();
+            event.modularInversions = MODULAR_INVERSIONS.sum();
+            event.verificationCacheHits = VERIFICATION_CACHE_HITS.sum();
+            event.verificationCacheMisses = VERIFICATION_CACHE_MISSES.sum();
+            event.commit();
+        });
+    }
+
+    private CryptoMetrics() {
+    }
+
+    /**
+     * Start timing an operation, to be finished with {@link Timer#end()} in a finally block
+     *
+     * @param theOperation the operation
+     * @param bytes        the number of bytes the operation processes
+     * @return the running timer
+     */
+    static Timer start(final Operation theOperation, final long bytes) {
+        return new Timer(theOperation, bytes);
+    }
+
+    /**
+     * Record a finished Keccak sponge computation
+     *
+     * @param event        the event that was begun when the sponge started
+     * @param absorbed     the number of bytes absorbed, including padding
+     * @param outputLength the number of bits squeezed
+     */
+    static void endSponge(final SpongeEvent event, final long absorbed, final int outputLength) {
+        KECCAK_ABSORBED_BYTES.add(absorbed);
+        commitSponge(event, absorbed, outputLength);
+    }
+
+    /**
+     * Record the event of a finished Keccak sponge computation whose absorbed bytes have already been counted
+     *
+     * @param event        the event that was begun when the sponge started
+     * @param absorbed     the number of bytes absorbed, including padding
+     * @param outputLength the number of bits squeezed, 0 if the output is squeezed piece by piece
+     */
+    static void commitSponge(final SpongeEvent event, final long absorbed, final int outputLength) {
+        if (event.shouldCommit()) {
+            event.absorbedBytes = absorbed;
+            event.outputBits = outputLength;
+            event.commit();
+        }
+    }
+
+    /**
+     * Record a finished scalar multiplication
+     *
+     * @param event     the event that was begun when the multiplication started
+     * @param bitLength the bit length of the scalar
+     */
+    static void endScalarMultiply(final ScalarMultiplyEvent event, final int bitLength) {
+        SCALAR_MULTIPLICATIONS.increment();
+        if (event.shouldCommit()) {
+            event.scalarBits = bitLength;
+            event.commit();
+        }
+    }
+
+    /**
+     * Take a snapshot of every counter, including the count, bytes and total nanoseconds of every operation
+     *
+     * @return the counter values by name, in a stable order
+     */
+    static Map<String, Long> snapshot() {
+        final Map<String, Long> values = new LinkedHashMap<>();
+        values.put("keccak.permutations", KECCAK_PERMUTATIONS.sum());
+        values.put("keccak.absorbedBytes", KECCAK_ABSORBED_BYTES.sum());
+        values.put("ec.scalarMultiplications", SCALAR_MULTIPLICATIONS.sum());
+        values.put("ec.pointAdditions", POINT_ADDITIONS.sum());
+        values.put("ec.modularInversions", MODULAR_INVERSIONS.sum());
+        values.put("ec.verificationCache.hits", VERIFICATION_CACHE_HITS.sum());
+        values.put("ec.verificationCache.misses", VERIFICATION_CACHE_MISSES.sum());
+        for (final Operation theOperation : Operation.values()) {
+            values.put(theOperation.myName + ".count", theOperation.myCount.sum());
+            values.put(theOperation.myName + ".bytes", theOperation.myBytes.sum());
+            values.put(theOperation.myName + ".nanos", theOperation.myNanos.sum());
+        }
+        return values;
+    }
+
+    /**
+     * The instrumented high-level operations.
+     */
+    enum Operation {
+        ECDHIES_ENCRYPT("ECDHIES.encrypt"),
+        ECDHIES_DECRYPT("ECDHIES.decrypt"),
+        EC_ENCRYPT("EllipticCurves.encrypt"),
+        EC_DECRYPT("EllipticCurves.decrypt"),
+        EC_SIGN("EllipticCurves.getSignature"),
+        EC_VERIFY("EllipticCurves.verifySignature");
+
+        private final String myName;
+        private final LongAdder myCount = new LongAdder();
+        private final LongAdder myBytes = new LongAdder();
+        private final LongAdder myNanos = new LongAdder();
+
+        Operation(final String theName) {
+            this.myName = theName;
+        }
+    }
+
+    /**
+     * A running operation.
+     */
+    static final class Timer {
+        private final Operation myOperation;
+        private long myBytes;
+        private final long myStart = System.nanoTime();
+        private final OperationEvent myEvent = new OperationEvent();
+
+        private Timer(final Operation theOperation, final long theBytes) {
+            this.myOperation = theOperation;
+            this.myBytes = theBytes;
+            myEvent.begin();
+        }
+
+        /**
+         * Count more bytes, for operations that stream their data and do not know its length up front
+         *
+         * @param bytes the number of bytes processed since the last call
+         */
+        void addBytes(final long bytes) {
+            myBytes += bytes;
+        }
+
+        /**
+         * Finish the operation, adding it to the counters and committing its event
+         */
+        void end() {
+            myOperation.myCount.increment();
+            myOperation.myBytes.add(myBytes);
+            myOperation.myNanos.add(System.nanoTime() - myStart);
+            if (myEvent.shouldCommit()) {
+                myEvent.operation = myOperation.myName;
+                myEvent.bytes = myBytes;
+                myEvent.commit();
+            }
+        }
+    }
+
+    @Name("crypto.Operation")
+    @Label("Cryptographic Operation")
+    @Category("Cryptography")
+    static final class OperationEvent extends Event {
+        @Label("Operation")
+        String operation;
+        @Label("Bytes")
+        @DataAmount
+        long bytes;
+    }
+
+    @Name("crypto.KeccakSponge")
+    @Label("Keccak Sponge")
+    @Category("Cryptography")
+    static final class SpongeEvent extends Event {
+        @Label("Absorbed Bytes")
+        @DataAmount
+        long absorbedBytes;
+        @Label("Output Bits")
+        int outputBits;
+    }
+
+    @Name("crypto.ScalarMultiply")
+    @Label("Elliptic Curve Scalar Multiplication")
+    @Category("Cryptography")
+    static final class ScalarMultiplyEvent extends Event {
+        @Label("Scalar Bits")
+        int scalarBits;
+    }
+
+    @Name("crypto.Counters")
+    @Label("Cryptographic Counters")
+    @Category("Cryptography")
+    @Period("1 s")
+    static final class CountersEvent extends Event {
+        @Label("Keccak Permutations")
+        long keccakPermutations;
+        @Label("Keccak Absorbed Bytes")
+        @DataAmount
+        long keccakAbsorbedBytes;
+        @Label("Scalar Multiplications")
+        long scalarMultiplications;
+        @Label("Point Additions")
+        long pointAdditions;
+        @Label("Modular Inversions")
+        long modularInversions;
+        @Label("Verification Cache Hits")
+        long verificationCacheHits;
+        @Label("Verification Cache Misses")
+        long verificationCacheMisses;
+    }
+}
@@ -0,0 +1,428 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * An asynchronous facade over {@link ECDHIES}, {@link EllipticCurves} and {@link Keccak}, for callers that must not
+ * block. Every operation returns a CompletableFuture and runs on the executor the service was created with.
+ * <p>
+ * Hash, tag, sign and verify requests are not run one by one: a background thread collects the requests that arrive
+ * within a short delay of each other into micro-batches, and every batch is run as one task. Within a batch,
+ * the passphrase of every distinct signer or tag key is derived only once, every distinct public key is decoded
+ * only once, and the signatures are verified in parallel.
+ * <p>
+ * The number of requests waiting or running is bounded. Once the bound is reached, further requests are rejected
+ * right away with a future that fails with a RejectedExecutionException, so callers can back off instead of
+ * piling up work. The byte arrays given to an operation must not be changed until its future is complete.
+ *
+ * @author Yudong Lin
+ */
+final class CryptoService implements AutoCloseable {
+    /**
+     * The number of requests that may be waiting or running at once, for each of the batched and the other operations
+     */
+    static final int DEFAULT_CAPACITY = 4096;
+    static final int DEFAULT_MAX_BATCH_SIZE = 64;
+    static final long DEFAULT_MAX_DELAY_MICROS = 200;
+
+    private final Executor myExecutor;
+    private final boolean myOwnsExecutor;
+    private final BlockingQueue<Request> myQueue;
+    private final Semaphore myPermits;
+    private final Semaphore myBatchPermits;
+    private final int myMaxBatchSize;
+    private final long myMaxDelayNanos;
+    private final Thread myBatcher;
+    private volatile boolean myClosed;
+
+    private CryptoService(final Executor theExecutor, final boolean theOwnsExecutor, final int theCapacity,
+                          final int theMaxBatchSize, final long theMaxDelayMicros) {
+        if (theCapacity < 1 || theMaxBatchSize < 1 || theMaxDelayMicros < 0) {
+            throw new IllegalArgumentException("The capacity and the batch size have to be positive!");
+        }
+        this.myExecutor = theExecutor;
+        this.myOwnsExecutor = theOwnsExecutor;
+        this.myQueue = new ArrayBlockingQueue<>(theCapacity);
+        this.myPermits = new Semaphore(theCapacity);
+        this.myBatchPermits = new Semaphore(theCapacity);
+        this.myMaxBatchSize = theMaxBatchSize;
+        this.myMaxDelayNanos = TimeUnit.MICROSECONDS.toNanos(theMaxDelayMicros);
+        this.myBatcher = new Thread(this::collectBatches, "crypto-service-batcher");
+        this.myBatcher.setDaemon(true);
+        this.myBatcher.start();
+    }
+
+    public static void main(final String[] args) {
+        try (final CryptoService service = create()) {
+            final byte[] data = "Attack at dawn!".getBytes();
+            final byte[] pw = "pw".getBytes();
+            assert Arrays.equals(service.hashAsync(data).join(), Keccak.KMACXOF256("".getBytes(), data, 512, "D"));
+            assert Arrays.equals(service.tagAsync(data, pw).join(), Keccak.KMACXOF256(pw, data, 512, "T"));
+            assert Arrays.equals(service.decryptAsync(service.encryptAsync(data, pw).join(), pw).join(), data);
+            final byte[] V = EllipticCurves.getSchnorrKeyPair(pw).getPublicKey();
+            assert Arrays.equals(service.ecDecryptAsync(service.ecEncryptAsync(data, V).join(), pw).join(), data);
+            final List<CompletableFuture<byte[]>> signatures = new ArrayList<>();
+            for (int i = 0; i < 8; i++) {
+                signatures.add(service.signAsync(("message " + i).getBytes(), pw));
+            }
+            for (int i = 0; i < 8; i++) {
+                final byte[] signature = signatures.get(i).join();
+                final byte[] m = ("message " + i).getBytes();
+                try {
+                    assert service.verifyAsync(signature, m, V).join() == EllipticCurves.verifySignature(signature, m, V);
+                } catch (final IOException | ClassNotFoundException e) {
+                    throw new AssertionError(e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Create a service with the default bounds, running on virtual threads if the runtime has them
+     *
+     * @return the service, which has to be closed
+     */
+    static CryptoService create() {
+        return new CryptoService(newVirtualThreadExecutor(), true, DEFAULT_CAPACITY, DEFAULT_MAX_BATCH_SIZE, DEFAULT_MAX_DELAY_MICROS);
+    }
+
+    /**
+     * Create a service running on the given executor, which is not shut down when the service is closed
+     *
+     * @param executor       where the operations and batches run
+     * @param capacity       the number of batched requests, and of other requests, that may be waiting or running at once
+     * @param maxBatchSize   the largest number of requests run as one batch
+     * @param maxDelayMicros how long a request may wait for more requests to join its batch, in microseconds
+     * @return the service, which has to be closed
+     */
+    static CryptoService create(final Executor executor, final int capacity, final int maxBatchSize, final long maxDelayMicros) {
+        return new CryptoService(executor, false, capacity, maxBatchSize, maxDelayMicros);
+    }
+
+    /**
+     * Create an executor that runs every task on its own virtual thread (Java 21 and later),
+     * or on a pooled platform thread when the runtime does not support virtual threads
+     *
+     * @return the executor
+     */
+    static ExecutorService newVirtualThreadExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (final ReflectiveOperationException e) {
+            return Executors.newCachedThreadPool();
+        }
+    }
+
+    /**
+     * Encrypt data under a passphrase, see {@link ECDHIES#encrypt(byte[], byte[])}
+     *
+     * @param data the data that will be encrypted
+     * @param pw   the passphrase
+     * @return the cryptogram
+     */
+    CompletableFuture<byte[]> encryptAsync(final byte[] data, final byte[] pw) {
+        return run(() -> ECDHIES.encrypt(data, pw));
+    }
+
+    /**
+     * Decrypt a cryptogram with a passphrase, see {@link ECDHIES#decrypt(byte[], byte[])}
+     *
+     * @param cryptogram the cryptogram
+     * @param pw         the passphrase
+     * @return the data, or a failed future if the passphrase is wrong or the cryptogram has been tampered with
+     */
+    CompletableFuture<byte[]> decryptAsync(final byte[] cryptogram, final byte[] pw) {
+        return run(() -> ECDHIES.decrypt(cryptogram, pw));
+    }
+
+    /**
+     * Encrypt data under an elliptic public key, see {@link EllipticCurves#encrypt(byte[], byte[])}
+     *
+     * @param data the data that will be encrypted
+     * @param V    the encoded public key
+     * @return the cryptogram
+     */
+    CompletableFuture<byte[]> ecEncryptAsync(final byte[] data, final byte[] V) {
+        return run(() -> EllipticCurves.encrypt(data, V));
+    }
+
+    /**
+     * Decrypt an elliptic cryptogram with the passphrase of its key pair, see {@link EllipticCurves#decrypt(byte[], byte[])}
+     *
+     * @param cryptogram the cryptogram
+     * @param pw         the passphrase
+     * @return the data
+     */
+    CompletableFuture<byte[]> ecDecryptAsync(final byte[] cryptogram, final byte[] pw) {
+        return run(() -> EllipticCurves.decrypt(cryptogram, pw));
+    }
+
+    /**
+     * Hash data with KMACXOF256("", data, 512, "D"), as -h does
+     *
+     * @param data the data
+     * @return the hash
+     */
+    CompletableFuture<byte[]> hashAsync(final byte[] data) {
+        return submit(Kind.HASH, data, null, null);
+    }
+
+    /**
+     * Compute the authentication tag KMACXOF256(pw, data, 512, "T") of data, as -t does
+     *
+     * @param data the data
+     * @param pw   the passphrase
+     * @return the tag
+     */
+    CompletableFuture<byte[]> tagAsync(final byte[] data, final byte[] pw) {
+        return submit(Kind.TAG, data, pw, null);
+    }
+
+    /**
+     * Sign data with the key pair of a passphrase, see {@link EllipticCurves#getSignature(byte[], byte[])}
+     *
+     * @param data the data
+     * @param pw   the passphrase
+     * @return the signature, in the format of {@link EllipticCurveKeyPair#toByteArray(EllipticCurveKeyPair)}
+     */
+    CompletableFuture<byte[]> signAsync(final byte[] data, final byte[] pw) {
+        return submit(Kind.SIGN, data, pw, null);
+    }
+
+    /**
+     * Verify a signature, see {@link EllipticCurves#verifySignatures(List, List, List)}
+     *
+     * @param signature the signature
+     * @param data      the data
+     * @param V         the encoded public key
+     * @return whether the signature verifies the data, false for a malformed signature or public key
+     */
+    CompletableFuture<Boolean> verifyAsync(final byte[] signature, final byte[] data, final byte[] V) {
+        return submit(Kind.VERIFY, data, signature, V);
+    }
+
+    /**
+     * Stop collecting batches, fail every request that is still waiting for one, and shut the executor down
+     * if the service created it. Requests that are already running still complete.
+     */
+    @Override
+    public void close() {
+        // no request can be queued once this returns, see submit
+        synchronized (myQueue) {
+            myClosed = true;
+        }
+        myBatcher.interrupt();
+        failPending(new ArrayList<>());
+        if (myOwnsExecutor) {
+            ((ExecutorService) myExecutor).shutdown();
+        }
+    }
+
+    /**
+     * Run an operation that is not batched on the executor, unless too many are waiting or running already
+     */
+    private <T> CompletableFuture<T> run(final Supplier<T> operation) {
+        if (myClosed) {
+            return CompletableFuture.failedFuture(new RejectedExecutionException("The crypto service has been closed!"));
+        }
+        if (!myPermits.tryAcquire()) {
+            return CompletableFuture.failedFuture(new RejectedExecutionException("Too many requests are waiting, try again later!"));
+        }
+        try {
+            return CompletableFuture.supplyAsync(operation, myExecutor).whenComplete((result, e) -> myPermits.release());
+        } catch (final RejectedExecutionException e) {
+            myPermits.release();
+            return CompletableFuture.failedFuture(e);
+        }
+    }
+
+    /**
+     * Queue a request for the next batch of its kind, unless too many are waiting or running already
+     */
+    @SuppressWarnings("unchecked")
+    private <T> CompletableFuture<T> submit(final Kind kind, final byte[] data, final byte[] key, final byte[] V) {
+        final Request request = new Request(kind, data, key, V);
+        // checked and queued under the lock close() takes, so a request is never queued after close() drained the queue
+        synchronized (myQueue) {
+            if (myClosed) {
+                return CompletableFuture.failedFuture(new RejectedExecutionException("The crypto service has been closed!"));
+            }
+            if (!myBatchPermits.tryAcquire()) {
+                return CompletableFuture.failedFuture(new RejectedExecutionException("Too many requests are waiting, try again later!"));
+            }
+            // the queue is as large as the number of permits, so it always has room for a request holding one
+            myQueue.add(request);
+        }
+        return (CompletableFuture<T>) request.myResult.whenComplete((result, e) -> myBatchPermits.release());
+    }
+
+    /**
+     * Take the requests off the queue as they come: wait for the first one, then for up to the maximum delay
+     * for more, and hand every kind of request in the batch to the executor as one task
+     */
+    private void collectBatches() {
+        final List<Request> batch = new ArrayList<>(myMaxBatchSize);
+        while (!myClosed) {
+            try {
+                batch.add(myQueue.take());
+                final long deadline = System.nanoTime() + myMaxDelayNanos;
+                while (batch.size() < myMaxBatchSize) {
+                    myQueue.drainTo(batch, myMaxBatchSize - batch.size());
+                    final long remaining = deadline - System.nanoTime();
+                    if (batch.size() >= myMaxBatchSize || remaining <= 0) {
+                        break;
+                    }
+                    final Request next = myQueue.poll(remaining, TimeUnit.NANOSECONDS);
+                    if (next == null) {
+                        break;
+                    }
+                    batch.add(next);
+                }
+            } catch (final InterruptedException e) {
+                break;
+            }
+            final Map<Kind, List<Request>> byKind = new EnumMap<>(Kind.class);
+            for (final Request request : batch) {
+                byKind.computeIfAbsent(request.myKind, k -> new ArrayList<>()).add(request);
+            }
+            batch.clear();
+            byKind.forEach((kind, requests) -> {
+                try {
+                    myExecutor.execute(() -> runBatch(kind, requests));
+                } catch (final RejectedExecutionException e) {
+                    for (final Request request : requests) {
+                        request.myResult.completeExceptionally(e);
+                    }
+                }
+            });
+        }
+        failPending(batch);
+    }
+
+    /**
+     * Fail the given requests and every request still in the queue, once the service has been closed
+     *
+     * @param requests requests already taken off the queue
+     */
+    private void failPending(final List<Request> requests) {
+        myQueue.drainTo(requests);
+        for (final Request request : requests) {
+            request.myResult.completeExceptionally(new RejectedExecutionException("The crypto service has been closed!"));
+        }
+        requests.clear();
+    }
+
+    /**
+     * Run a batch of requests of the same kind, completing the future of every request
+     */
+    private static void runBatch(final Kind kind, final List<Request> requests) {
+        try {
+            switch (kind) {
+                case HASH -> {
+                    final Keccak.Sponge prefix = Keccak.newKMACXOF256("".getBytes(), "D");
+                    for (final Request request : requests) {
+                        request.complete(digest(prefix, request.myData));
+                    }
+                }
+                case TAG -> {
+                    // the key of every distinct passphrase is absorbed only once
+                    final Map<ByteBuffer, Keccak.Sponge> prefixes = new HashMap<>();
+                    for (final Request request : requests) {
+                        request.complete(digest(prefixes.computeIfAbsent(ByteBuffer.wrap(request.myKey),
+                                pw -> Keccak.newKMACXOF256(request.myKey, "T")), request.myData));
+                    }
+                }
+                case SIGN -> {
+                    // the private key of every distinct passphrase is derived only once
+                    final Map<ByteBuffer, PrivateKeyHandle> keys = new HashMap<>();
+                    try {
+                        requests.parallelStream().forEach(request -> {
+                            final PrivateKeyHandle key;
+                            synchronized (keys) {
+                                key = keys.computeIfAbsent(ByteBuffer.wrap(request.myKey), pw -> new PrivateKeyHandle(request.myKey));
+                            }
+                            try {
+                                request.complete(EllipticCurveKeyPair.toByteArray(EllipticCurves.getSignature(request.myData, key)));
+                            } catch (final IOException | RuntimeException e) {
+                                request.myResult.completeExceptionally(e);
+                            }
+                        });
+                    } finally {
+                        keys.values().forEach(PrivateKeyHandle::destroy);
+                    }
+                }
+                case VERIFY -> {
+                    final List<byte[]> signatures = new ArrayList<>(requests.size());
+                    final List<byte[]> messages = new ArrayList<>(requests.size());
+                    final List<byte[]> publicKeys = new ArrayList<>(requests.size());
+                    for (final Request request : requests) {
+                        signatures.add(request.myKey);
+                        messages.add(request.myData);
+                        publicKeys.add(request.myPublicKey);
+                    }
+                    final boolean[] results = EllipticCurves.verifySignatures(signatures, messages, publicKeys);
+                    for (int i = 0; i < results.length; i++) {
+                        requests.get(i).complete(results[i]);
+                    }
+                }
+            }
+        } catch (final RuntimeException e) {
+            for (final Request request : requests) {
+                request.myResult.completeExceptionally(e);
+            }
+        }
+    }
+
+    private static byte[] digest(final Keccak.Sponge prefix, final byte[] data) {
+        final Keccak.Sponge theSponge = prefix.copy();
+        theSponge.update(data);
+        return theSponge.digest(512);
+    }
+
+    /**
+     * The operations that are run in batches.
+     */
+    private enum Kind {
+        HASH, TAG, SIGN, VERIFY
+    }
+
+    /**
+     * A batched request and the future of its result.
+     */
+    private static final class Request {
+        private final Kind myKind;
+        private final byte[] myData;
+        /**
+         * The passphrase for a tag or a signature, the signature for a verification
+         */
+        private final byte[] myKey;
+        private final byte[] myPublicKey;
+        private final CompletableFuture<Object> myResult = new CompletableFuture<>();
+
+        private Request(final Kind theKind, final byte[] theData, final byte[] theKey, final byte[] thePublicKey) {
+            this.myKind = theKind;
+            this.myData = theData;
+            this.myKey = theKey;
+            this.myPublicKey = thePublicKey;
+        }
+
+        private void complete(final Object result) {
+            myResult.complete(result);
+        }
+    }
+}
@@ -1,13 +1,64 @@
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
 
 /**
  * Implementation of ECDHIES encryption and decryption
+ * <p>
+ * A cryptogram is z || c || t. A cryptogram whose data was compressed before encryption is prefixed with
+ * {@link #HEADER}, and its tag also covers the header, so the flag cannot be changed or removed unnoticed.
  *
  * @author Yudong Lin
  */
 final class ECDHIES {
     final static int Z_LEN = 64;
     final static int T_LEN = 64;
+    /**
+     * The data was compressed with {@link Deflater} before encryption
+     */
+    private static final byte FLAG_DEFLATE = 0x01;
+    /**
+     * The magic bytes and the flags that start a cryptogram of compressed data. Cryptograms of uncompressed data
+     * have no header and start with the random z, so one in 2^32 of them starts with these bytes by chance,
+     * which is why decrypting falls back to the format without header if the tag does not match.
+     */
+    private static final byte[] HEADER = {(byte) 0xEC, (byte) 0xD1, (byte) 0xE5, (byte) 0x5A, FLAG_DEFLATE};
+    private static final int FLAGS_INDEX = HEADER.length - 1;
+
+    /**
+     * @param data     the date that will be encrypted
+     * @param pw       the passphrase used for encryption
+     * @param compress whether the data will be compressed before encryption, which pays off for text and the like
+     * @return the data that is encrypted
+     */
+    static byte[] encrypt(final byte[] data, final byte[] pw, final boolean compress) {
+        if (!compress) {
+            return encrypt(data, pw);
+        }
+        final ByteArrayOutputStream out = new ByteArrayOutputStream(data.length / 2 + HEADER.length + Z_LEN + T_LEN);
+        try {
+            encrypt(Channels.newChannel(new ByteArrayInputStream(data)), Channels.newChannel(out), pw, true);
+        } catch (final IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return out.toByteArray();
+    }
 
     /**
      * @param data the date that will be encrypted
@@ -15,42 +66,414 @@ final class ECDHIES {
      * @return the data that is encrypted
      */
     static byte[] encrypt(final byte[] data, final byte[] pw) {
-        final byte[] z = Glossary.random(Z_LEN * 8);
-        final byte[] ke_ka = Keccak.KMACXOF256(Glossary.array_concatenation(z, pw), new byte[]{}, 1024, "S");
-        final byte[] ke = Glossary.substring(ke_ka, 0, ke_ka.length / 2);
-        final byte[] ka = Glossary.substring(ke_ka, ke_ka.length / 2, ke_ka.length);
-        final byte[] c = Keccak.KMACXOF256(ke, new byte[]{}, data.length * 8, "SKE");
-        // xor c with m
-        for (int i = 0; i < c.length; i++) {
-            c[i] = (byte) (c[i] ^ data[i]);
+        final CryptoMetrics.Timer timer = CryptoMetrics.start(CryptoMetrics.Operation.ECDHIES_ENCRYPT, data.length);
+        try {
+            final byte[] z = Glossary.random(Z_LEN * 8);
+            final byte[] ke_ka = Keccak.KMACXOF256(Glossary.array_concatenation(z, pw), new byte[]{}, 1024, "S");
+            final byte[] ke = Glossary.substring(ke_ka, 0, ke_ka.length / 2);
+            final byte[] ka = Glossary.substring(ke_ka, ke_ka.length / 2, ke_ka.length);
+            final byte[] c = Keccak.KMACXOF256(ke, new byte[]{}, data.length * 8, "SKE");
+            // xor c with m
+            for (int i = 0; i < c.length; i++) {
+                c[i] = (byte) (c[i] ^ data[i]);
+            }
+            final byte[] t = Keccak.KMACXOF256(ka, data, T_LEN * 8, "SKA");
+            return Glossary.array_concatenation(z, c, t);
+        } finally {
+            timer.end();
         }
-        final byte[] t = Keccak.KMACXOF256(ka, data, T_LEN * 8, "SKA");
-        return Glossary.array_concatenation(z, c, t);
     }
 
     /**
-     * @param data the date that will be decrypted
+     * @param data the date that will be decrypted, with or without compression
      * @param pw   the passphrase used for decryption
      * @return the data that is decrypted
      */
     static byte[] decrypt(final byte[] data, final byte[] pw) {
-        // obtain z, c and t from data
-        final byte[] z = Arrays.copyOfRange(data, 0, Z_LEN);
-        final byte[] c = Arrays.copyOfRange(data, z.length, data.length - T_LEN);
-        final byte[] t = Arrays.copyOfRange(data, z.length + c.length, data.length);
+        if (hasHeader(data) && data[FLAGS_INDEX] == FLAG_DEFLATE) {
+            try {
+                return decryptWithHeader(data, pw);
+            } catch (final IllegalArgumentException e) {
+                try {
+                    return decryptWithoutHeader(data, pw);
+                } catch (final IllegalArgumentException ignored) {
+                    throw e;
+                }
+            }
+        }
+        return decryptWithoutHeader(data, pw);
+    }
+
+    private static boolean hasHeader(final byte[] data) {
+        return data.length >= HEADER.length && Arrays.equals(data, 0, FLAGS_INDEX, HEADER, 0, FLAGS_INDEX);
+    }
+
+    /**
+     * Decrypt a cryptogram of compressed data, which is only decompressed once its tag has been checked
+     */
+    private static byte[] decryptWithHeader(final byte[] data, final byte[] pw) {
+        final CryptoMetrics.Timer timer = CryptoMetrics.start(CryptoMetrics.Operation.ECDHIES_DECRYPT, data.length);
+        final Inflater inflater = new Inflater();
+        try {
+            if (data.length < HEADER.length + Z_LEN + T_LEN) {
+                throw new IllegalArgumentException("The cryptogram is too short!");
+            }
+            // obtain z, c and t from data
+            final byte[] z = Arrays.copyOfRange(data, HEADER.length, HEADER.length + Z_LEN);
+            final byte[] c = Arrays.copyOfRange(data, HEADER.length + Z_LEN, data.length - T_LEN);
+            final byte[] t = Arrays.copyOfRange(data, data.length - T_LEN, data.length);
 
+            final byte[] ke_ka = Keccak.KMACXOF256(Glossary.array_concatenation(z, pw), new byte[]{}, 1024, "S");
+            final byte[] ke = Glossary.substring(ke_ka, 0, ke_ka.length / 2);
+            final byte[] ka = Glossary.substring(ke_ka, ke_ka.length / 2, ke_ka.length);
+            final byte[] m = Keccak.KMACXOF256(ke, new byte[]{}, c.length * 8, "SKE");
+            // xor m with c
+            for (int i = 0; i < m.length; i++) {
+                m[i] = (byte) (m[i] ^ c[i]);
+            }
+            final byte[] t_inv = Keccak.KMACXOF256(ka, Glossary.array_concatenation(HEADER, m), T_LEN * 8, "SKA");
+            if (!Arrays.equals(t_inv, t)) {
+                throw new IllegalArgumentException("Invalid z potentially due to incorrect passphrase!");
+            }
+            final ByteArrayOutputStream out = new ByteArrayOutputStream(2 * m.length);
+            inflate(inflater, m, m.length, new byte[Armor.BLOCK_SIZE], Channels.newChannel(out));
+            if (!inflater.finished()) {
+                throw new IllegalArgumentException("The compressed data is incomplete!");
+            }
+            return out.toByteArray();
+        } catch (final IOException e) {
+            throw new UncheckedIOException(e);
+        } finally {
+            inflater.end();
+            timer.end();
+        }
+    }
+
+    private static byte[] decryptWithoutHeader(final byte[] data, final byte[] pw) {
+        final CryptoMetrics.Timer timer = CryptoMetrics.start(CryptoMetrics.Operation.ECDHIES_DECRYPT, data.length);
+        try {
+            // obtain z, c and t from data
+            final byte[] z = Arrays.copyOfRange(data, 0, Z_LEN);
+            final byte[] c = Arrays.copyOfRange(data, z.length, data.length - T_LEN);
+            final byte[] t = Arrays.copyOfRange(data, z.length + c.length, data.length);
+
+            final byte[] ke_ka = Keccak.KMACXOF256(Glossary.array_concatenation(z, pw), new byte[]{}, 1024, "S");
+            final byte[] ke = Glossary.substring(ke_ka, 0, ke_ka.length / 2);
+            final byte[] ka = Glossary.substring(ke_ka, ke_ka.length / 2, ke_ka.length);
+            final byte[] m = Keccak.KMACXOF256(ke, new byte[]{}, c.length * 8, "SKE");
+            // xor m with c
+            for (int i = 0; i < m.length; i++) {
+                m[i] = (byte) (m[i] ^ c[i]);
+            }
+            final byte[] t_inv = Keccak.KMACXOF256(ka, m, 512, "SKA");
+            if (!Arrays.equals(t_inv, t)) {
+                throw new IllegalArgumentException("Invalid z potentially due to incorrect passphrase!");
+            }
+            return m;
+        } finally {
+            timer.end();
+        }
+    }
+
+    /**
+     * Encrypt everything read from a channel, writing the cryptogram to another channel as it is produced,
+     * so data of any length is encrypted in constant memory. The cryptogram is the same as {@link #encrypt(byte[], byte[], boolean)} produces.
+     *
+     * @param in       the data that will be encrypted
+     * @param out      where the cryptogram will be written
+     * @param pw       the passphrase used for encryption
+     * @param compress whether the data will be compressed before encryption
+     * @throws IOException fail to read or to write
+     */
+    static void encrypt(final ReadableByteChannel in, final WritableByteChannel out, final byte[] pw, final boolean compress) throws IOException {
+        final CryptoMetrics.Timer timer = CryptoMetrics.start(CryptoMetrics.Operation.ECDHIES_ENCRYPT, 0);
+        final Deflater deflater = compress ? new Deflater() : null;
+        try {
+            final byte[] z = Glossary.random(Z_LEN * 8);
+            final byte[] ke_ka = Keccak.KMACXOF256(Glossary.array_concatenation(z, pw), new byte[]{}, 1024, "S");
+            final Keccak.Sponge c = Keccak.newKMACXOF256(Glossary.substring(ke_ka, 0, ke_ka.length / 2), "SKE");
+            final Keccak.Sponge t = Keccak.newKMACXOF256(Glossary.substring(ke_ka, ke_ka.length / 2, ke_ka.length), "SKA");
+            if (compress) {
+                writeFully(out, ByteBuffer.wrap(HEADER));
+                t.update(HEADER);
+            }
+            writeFully(out, ByteBuffer.wrap(z));
+            final ByteBuffer buffer = ByteBuffer.allocate(Armor.BLOCK_SIZE);
+            final byte[] deflated = compress ? new byte[Armor.BLOCK_SIZE] : null;
+            final byte[] key = new byte[Armor.BLOCK_SIZE];
+            while (in.read(buffer) >= 0) {
+                final int n = buffer.position();
+                timer.addBytes(n);
+                if (compress) {
+                    deflater.setInput(buffer.array(), 0, n);
+                    while (!deflater.needsInput()) {
+                        encryptBlock(out, c, t, key, deflated, deflater.deflate(deflated));
+                    }
+                } else {
+                    encryptBlock(out, c, t, key, buffer.array(), n);
+                }
+                buffer.clear();
+            }
+            if (compress) {
+                deflater.finish();
+                while (!deflater.finished()) {
+                    encryptBlock(out, c, t, key, deflated, deflater.deflate(deflated));
+                }
+            }
+            writeFully(out, ByteBuffer.wrap(t.digest(T_LEN * 8)));
+        } finally {
+            if (deflater != null) {
+                deflater.end();
+            }
+            timer.end();
+        }
+    }
+
+    /**
+     * Encrypt everything read from a channel without compression, see {@link #encrypt(ReadableByteChannel, WritableByteChannel, byte[], boolean)}
+     *
+     * @param in  the data that will be encrypted
+     * @param out where the cryptogram will be written
+     * @param pw  the passphrase used for encryption
+     * @throws IOException fail to read or to write
+     */
+    static void encrypt(final ReadableByteChannel in, final WritableByteChannel out, final byte[] pw) throws IOException {
+        encrypt(in, out, pw, false);
+    }
+
+    /**
+     * Authenticate and encrypt n bytes of the block in place and write them
+     */
+    private static void encryptBlock(final WritableByteChannel out, final Keccak.Sponge c, final Keccak.Sponge t,
+                                     final byte[] key, final byte[] block, final int n) throws IOException {
+        t.update(block, 0, n);
+        // xor c with m
+        c.squeeze(key, 0, n);
+        for (int i = 0; i < n; i++) {
+            block[i] ^= key[i];
+        }
+        writeFully(out, ByteBuffer.wrap(block, 0, n));
+    }
+
+    /**
+     * Decrypt a cryptogram read from a channel, with or without compression, writing the data to another channel
+     * as it is decrypted, so cryptograms of any length are decrypted in constant memory.
+     * Since the tag comes last, the data of an uncompressed cryptogram has been written in full before it can be
+     * authenticated: if this method throws, everything written so far has to be discarded.
+     * A compressed cryptogram is instead kept in a temporary file until it has been authenticated, and only then
+     * decompressed, so that forged data never reaches the decompressor and cannot make it write without limit.
+     * If it does not authenticate, it is decrypted as a cryptogram without header whose z happens to start with
+     * {@link #HEADER}, just like {@link #decrypt(byte[], byte[])} does, and again only once it has been authenticated.
+     *
+     * @param in  the cryptogram
+     * @param out where the data will be written
+     * @param pw  the passphrase used for decryption
+     * @throws IOException fail to read or to write
+     */
+    static void decrypt(final ReadableByteChannel in, final WritableByteChannel out, final byte[] pw) throws IOException {
+        final CryptoMetrics.Timer timer = CryptoMetrics.start(CryptoMetrics.Operation.ECDHIES_DECRYPT, 0);
+        try {
+            final ByteBuffer head = ByteBuffer.allocate(HEADER.length + Z_LEN);
+            readFully(in, head.limit(Z_LEN));
+            final boolean compressed = hasHeader(head.array()) && head.get(FLAGS_INDEX) == FLAG_DEFLATE;
+            if (compressed) {
+                readFully(in, head.limit(head.capacity()));
+            }
+            if (!compressed) {
+                decryptWithoutHeader(in, Arrays.copyOf(head.array(), Z_LEN), out, pw, timer);
+                return;
+            }
+            final byte[] z = Arrays.copyOfRange(head.array(), HEADER.length, HEADER.length + Z_LEN);
+            final byte[] ke_ka = Keccak.KMACXOF256(Glossary.array_concatenation(z, pw), new byte[]{}, 1024, "S");
+            final byte[] ke = Glossary.substring(ke_ka, 0, ke_ka.length / 2);
+            final Keccak.Sponge t_inv = Keccak.newKMACXOF256(Glossary.substring(ke_ka, ke_ka.length / 2, ke_ka.length), "SKA");
+            t_inv.update(HEADER);
+            // the spool holds c || t, which is as safe on disk as the cryptogram itself
+            final Path spool = Files.createTempFile("ecdhies", ".spool");
+            try (final FileChannel theSpool = FileChannel.open(spool, StandardOpenOption.READ, StandardOpenOption.WRITE,
+                    StandardOpenOption.DELETE_ON_CLOSE)) {
+                try {
+                    decryptBlocks(in, Keccak.newKMACXOF256(ke, "SKE"), t_inv, null, theSpool, timer);
+                } catch (final IllegalArgumentException e) {
+                    // nothing has been written yet, so the whole cryptogram can be tried without header,
+                    // authenticating it first so that nothing is written for a cryptogram that is neither
+                    final byte[] legacyZ = Arrays.copyOf(head.array(), Z_LEN);
+                    try {
+                        decryptWithoutHeader(readWithoutHeader(head, theSpool), legacyZ, null, pw, timer);
+                    } catch (final IllegalArgumentException ignored) {
+                        throw e;
+                    }
+                    decryptWithoutHeader(readWithoutHeader(head, theSpool), legacyZ, out, pw, timer);
+                    return;
+                }
+                inflate(theSpool, theSpool.size() - T_LEN, Keccak.newKMACXOF256(ke, "SKE"), out);
+            } finally {
+                Files.deleteIfExists(spool);
+            }
+        } finally {
+            timer.end();
+        }
+    }
+
+    /**
+     * Read a spooled cryptogram again as one without header, whose c starts with the bytes after the first Z_LEN
+     *
+     * @param head  the bytes read before the spool
+     * @param spool c || t as read after the head
+     * @return c || t of the cryptogram without header
+     */
+    private static ReadableByteChannel readWithoutHeader(final ByteBuffer head, final FileChannel spool) throws IOException {
+        // SequenceInputStream closes every stream it has read to the end, but the spool is read twice
+        final InputStream rest = new FilterInputStream(Channels.newInputStream(spool.position(0))) {
+            @Override
+            public void close() {
+            }
+        };
+        return Channels.newChannel(new SequenceInputStream(new ByteArrayInputStream(head.array(), Z_LEN, HEADER.length), rest));
+    }
+
+    /**
+     * Decrypt the rest of a cryptogram without header, writing the data as it is decrypted
+     *
+     * @param in    the rest of the cryptogram, c || t
+     * @param z     the z that starts the cryptogram
+     * @param out   where the data will be written, or null to only check the tag
+     * @param pw    the passphrase used for decryption
+     * @param timer the timer of the decryption
+     */
+    private static void decryptWithoutHeader(final ReadableByteChannel in, final byte[] z, final WritableByteChannel out,
+                                             final byte[] pw, final CryptoMetrics.Timer timer) throws IOException {
         final byte[] ke_ka = Keccak.KMACXOF256(Glossary.array_concatenation(z, pw), new byte[]{}, 1024, "S");
-        final byte[] ke = Glossary.substring(ke_ka, 0, ke_ka.length / 2);
-        final byte[] ka = Glossary.substring(ke_ka, ke_ka.length / 2, ke_ka.length);
-        final byte[] m = Keccak.KMACXOF256(ke, new byte[]{}, c.length * 8, "SKE");
-        // xor m with c
-        for (int i = 0; i < m.length; i++) {
-            m[i] = (byte) (m[i] ^ c[i]);
-        }
-        final byte[] t_inv = Keccak.KMACXOF256(ka, m, 512, "SKA");
-        if (!Arrays.equals(t_inv, t)) {
+        decryptBlocks(in, Keccak.newKMACXOF256(Glossary.substring(ke_ka, 0, ke_ka.length / 2), "SKE"),
+                Keccak.newKMACXOF256(Glossary.substring(ke_ka, ke_ka.length / 2, ke_ka.length), "SKA"), out, null, timer);
+    }
+
+    /**
+     * Decrypt c up to the tag that ends it and check the tag
+     *
+     * @param in    the rest of the cryptogram, c || t
+     * @param m     the key stream
+     * @param t_inv the tag, computed over the data
+     * @param out   where the data will be written, or null
+     * @param spool where c || t will be written, or null
+     * @param timer the timer of the decryption
+     */
+    private static void decryptBlocks(final ReadableByteChannel in, final Keccak.Sponge m, final Keccak.Sponge t_inv,
+                                      final WritableByteChannel out, final WritableByteChannel spool,
+                                      final CryptoMetrics.Timer timer) throws IOException {
+        // the last T_LEN bytes read so far are held back, since they may turn out to be the tag
+        final ByteBuffer buffer = ByteBuffer.allocate(Armor.BLOCK_SIZE + T_LEN);
+        final byte[] key = new byte[Armor.BLOCK_SIZE];
+        int read;
+        do {
+            read = in.read(buffer);
+            final int n = buffer.position() - T_LEN;
+            if (n > 0) {
+                if (spool != null) {
+                    writeFully(spool, ByteBuffer.wrap(buffer.array(), 0, n));
+                }
+                // xor m with c
+                m.squeeze(key, 0, n);
+                for (int i = 0; i < n; i++) {
+                    buffer.array()[i] ^= key[i];
+                }
+                t_inv.update(buffer.array(), 0, n);
+                if (out != null) {
+                    writeFully(out, ByteBuffer.wrap(buffer.array(), 0, n));
+                }
+                buffer.flip().position(n);
+                buffer.compact();
+                timer.addBytes(n);
+            }
+        } while (read >= 0);
+        if (spool != null) {
+            writeFully(spool, ByteBuffer.wrap(buffer.array(), 0, buffer.position()));
+        }
+        if (buffer.position() < T_LEN) {
+            throw new IllegalArgumentException("The cryptogram is too short!");
+        }
+        if (!Arrays.equals(t_inv.digest(T_LEN * 8), Arrays.copyOf(buffer.array(), T_LEN))) {
             throw new IllegalArgumentException("Invalid z potentially due to incorrect passphrase!");
         }
-        return m;
+    }
+
+    /**
+     * Decrypt an authenticated c and decompress the data
+     *
+     * @param spool  c || t
+     * @param length the length of c
+     * @param m      the key stream
+     * @param out    where the data will be written
+     */
+    private static void inflate(final FileChannel spool, final long length, final Keccak.Sponge m, final WritableByteChannel out) throws IOException {
+        final Inflater inflater = new Inflater();
+        try {
+            final ByteBuffer buffer = ByteBuffer.allocate(Armor.BLOCK_SIZE);
+            final byte[] key = new byte[Armor.BLOCK_SIZE];
+            final byte[] inflated = new byte[Armor.BLOCK_SIZE];
+            long position = 0;
+            while (position < length && spool.read(buffer.clear().limit((int) Math.min(buffer.capacity(), length - position)), position) >= 0) {
+                final int n = buffer.position();
+                position += n;
+                // xor m with c
+                m.squeeze(key, 0, n);
+                for (int i = 0; i < n; i++) {
+                    buffer.array()[i] ^= key[i];
+                }
+                if (n > 0) {
+                    inflate(inflater, buffer.array(), n, inflated, out);
+                }
+            }
+            if (!inflater.finished()) {
+                throw new IllegalArgumentException("The compressed data is incomplete!");
+            }
+        } finally {
+            inflater.end();
+        }
+    }
+
+    /**
+     * Decompress n bytes of the block and write the result
+     */
+    private static void inflate(final Inflater inflater, final byte[] block, final int n, final byte[] inflated,
+                                final WritableByteChannel out) throws IOException {
+        if (inflater.finished()) {
+            throw new IllegalArgumentException("Unexpected data after the compressed data!");
+        }
+        inflater.setInput(block, 0, n);
+        try {
+            while (!inflater.needsInput() && !inflater.finished()) {
+                if (inflater.needsDictionary()) {
+                    throw new DataFormatException("A preset dictionary is not supported");
+                }
+                writeFully(out, ByteBuffer.wrap(inflated, 0, inflater.inflate(inflated)));
+            }
+        } catch (final DataFormatException e) {
+            throw new IllegalArgumentException("Invalid compressed data potentially due to incorrect passphrase!", e);
+        }
+        if (inflater.getRemaining() > 0) {
+            throw new IllegalArgumentException("Unexpected data after the compressed data!");
+        }
+    }
+
+    private static void readFully(final ReadableByteChannel in, final ByteBuffer data) throws IOException {
+        while (data.hasRemaining()) {
+            if (in.read(data) < 0) {
+                throw new IllegalArgumentException("The cryptogram is too short!");
+            }
+        }
+    }
+
+    /**
+     * Write all remaining bytes of the buffer, since a single write to a channel may write only some of them
+     *
+     * @param out  the channel
+     * @param data the bytes to write
+     * @throws IOException fail to write
+     */
+    static void writeFully(final WritableByteChannel out, final ByteBuffer data) throws IOException {
+        while (data.hasRemaining()) {
+            out.write(data);
+        }
     }
 }
@@ -1,4 +1,10 @@
 import java.io.*;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HexFormat;
+import java.util.List;
 
 /**
  * This class is for storing Elliptic Curve key pair.
@@ -7,6 +13,19 @@ import java.io.*;
  * @author Yudong Lin
  */
 final class EllipticCurveKeyPair implements Serializable {
+    /**
+     * The UID the class had when key pairs were stored with Java serialization, which legacy streams carry
+     */
+    private static final long serialVersionUID = 8626320921547035864L;
+    /**
+     * A legacy stream may only hold a key pair and its two byte arrays, so that reading one never creates anything else
+     */
+    private static final ObjectInputFilter LEGACY_FILTER = ObjectInputFilter.Config.createFilter(
+            "EllipticCurveKeyPair;[B;maxdepth=2;maxrefs=8;maxarray=65535;!*");
+    /**
+     * Leading byte of the binary format, a Java serialization stream always starts with 0xAC 0xED instead
+     */
+    static final byte BINARY_FORMAT_VERSION = 0x01;
     private final byte[] myPublicKey;
     private final byte[] myPrivateBytes;
 
@@ -21,23 +40,55 @@ final class EllipticCurveKeyPair implements Serializable {
         this.myPrivateBytes = privateKeys;
     }
 
+    public static void main(final String[] args) throws IOException, ClassNotFoundException {
+        // a signature as the baseline wrote it with Java serialization, h = {-5, 1, 2} and z = {3, 4}
+        final byte[] legacy = HexFormat.of().parseHex("aced000573720014456c6c697074696343757276654b65795061697277b6d92c8754d4d8"
+                + "0200025b000e6d795072697661746542797465737400025b425b000b6d795075626c69634b657971007e00017870757200025b42"
+                + "acf317f8060854e0020000787000000003fb01027571007e0003000000020304");
+        final BigInteger[] hz = readSignature(legacy);
+        assert hz[0].equals(new BigInteger(new byte[]{-5, 1, 2})) && hz[1].equals(new BigInteger(new byte[]{3, 4}));
+        assert Arrays.equals(fromByteArray(legacy).getPublicKey(), new byte[]{3, 4});
+        // the binary format reads back what it wrote
+        final byte[] binary = toByteArray(fromByteArray(legacy));
+        assert Arrays.equals(fromByteArray(binary).getPrivateKey(), new byte[]{-5, 1, 2});
+        // a legacy stream holding anything else is refused
+        final ByteArrayOutputStream other = new ByteArrayOutputStream();
+        try (final ObjectOutputStream otherOut = new ObjectOutputStream(other)) {
+            otherOut.writeObject(new ArrayList<>(List.of("not a key pair")));
+        }
+        try {
+            fromByteArray(other.toByteArray());
+            throw new AssertionError("A stream without a key pair was accepted");
+        } catch (final InvalidClassException | InvalidObjectException expected) {
+            // refused by the filter
+        }
+    }
+
     /**
-     * Serialize a EllipticCurveKeyPair into a byte array
+     * Serialize a EllipticCurveKeyPair into a byte array using the binary format:
+     * the version byte, then the private key and the public key, each prefixed by its length as an unsigned short.
+     * For a signature the private key slot holds h and the public key slot holds z.
      *
      * @param theKeyPair the key pair that will be serialized
      * @return the serialized key pair
      * @throws IOException something went wrong during the process
      */
     static byte[] toByteArray(final EllipticCurveKeyPair theKeyPair) throws IOException {
-        final ByteArrayOutputStream streamOut = new ByteArrayOutputStream();
-        final ObjectOutputStream objectOut = new ObjectOutputStream(streamOut);
-        objectOut.writeObject(theKeyPair);
-        objectOut.flush();
-        return streamOut.toByteArray();
+        final byte[] privateKey = theKeyPair.getPrivateKey();
+        final byte[] publicKey = theKeyPair.getPublicKey();
+        if (privateKey.length > 0xffff || publicKey.length > 0xffff) {
+            throw new IOException("The key pair is too long for the binary format.");
+        }
+        return ByteBuffer.allocate(1 + 2 + privateKey.length + 2 + publicKey.length)
+                .put(BINARY_FORMAT_VERSION)
+                .putShort((short) privateKey.length).put(privateKey)
+                .putShort((short) publicKey.length).put(publicKey)
+                .array();
     }
 
     /**
-     * Recreate a EllipticCurveKeyPair from a byte array
+     * Recreate a EllipticCurveKeyPair from a byte array, which is either in the binary format
+     * or a legacy Java serialization stream
      *
      * @param theKeyPair the serialized key in byte array from
      * @return the Recreated EllipticCurveKeyPair
@@ -45,9 +96,111 @@ final class EllipticCurveKeyPair implements Serializable {
      * @throws ClassNotFoundException something went wrong during the process
      */
     static EllipticCurveKeyPair fromByteArray(final byte[] theKeyPair) throws IOException, ClassNotFoundException {
+        if (theKeyPair.length > 0 && theKeyPair[0] == BINARY_FORMAT_VERSION) {
+            return fromByteBuffer(ByteBuffer.wrap(theKeyPair));
+        }
         final ByteArrayInputStream theInputStream = new ByteArrayInputStream(theKeyPair);
-        final ObjectInput objectInput = new ObjectInputStream(theInputStream);
-        return (EllipticCurveKeyPair) objectInput.readObject();
+        final ObjectInputStream objectInput = new ObjectInputStream(theInputStream);
+        objectInput.setObjectInputFilter(LEGACY_FILTER);
+        final Object theObject = objectInput.readObject();
+        if (!(theObject instanceof EllipticCurveKeyPair)) {
+            throw new InvalidObjectException("The stream does not hold a key pair.");
+        }
+        return (EllipticCurveKeyPair) theObject;
+    }
+
+    /**
+     * Recreate a EllipticCurveKeyPair in the binary format from the remaining bytes of a buffer
+     *
+     * @param theBuffer the buffer holding the serialized key pair and nothing after it
+     * @return the Recreated EllipticCurveKeyPair
+     * @throws IOException the buffer does not hold exactly one key pair in the binary format
+     */
+    static EllipticCurveKeyPair fromByteBuffer(final ByteBuffer theBuffer) throws IOException {
+        readVersion(theBuffer);
+        final byte[] privateKey = new byte[readLength(theBuffer)];
+        theBuffer.get(privateKey);
+        final byte[] publicKey = new byte[readLength(theBuffer)];
+        theBuffer.get(publicKey);
+        readEnd(theBuffer);
+        return new EllipticCurveKeyPair(privateKey, publicKey);
+    }
+
+    /**
+     * Read a signature (h, z) straight into BigIntegers. A signature in the binary format is parsed in place
+     * without building an intermediate EllipticCurveKeyPair or copying its bytes.
+     *
+     * @param theSignature the serialized signature in either format
+     * @return the array {h, z}
+     * @throws IOException            something went wrong during the process
+     * @throws ClassNotFoundException something went wrong during the process
+     */
+    static BigInteger[] readSignature(final byte[] theSignature) throws IOException, ClassNotFoundException {
+        if (theSignature.length > 0 && theSignature[0] == BINARY_FORMAT_VERSION) {
+            final ByteBuffer theBuffer = ByteBuffer.wrap(theSignature);
+            readVersion(theBuffer);
+            final BigInteger[] hz = {readBigInteger(theBuffer), readBigInteger(theBuffer)};
+            readEnd(theBuffer);
+            return hz;
+        }
+        final EllipticCurveKeyPair theKeyPair = fromByteArray(theSignature);
+        return new BigInteger[]{new BigInteger(theKeyPair.getPrivateKey()), new BigInteger(theKeyPair.getPublicKey())};
+    }
+
+    /**
+     * Read and check the version byte of the binary format
+     *
+     * @param theBuffer the buffer to read from
+     * @throws IOException the version byte is missing or unsupported
+     */
+    private static void readVersion(final ByteBuffer theBuffer) throws IOException {
+        if (!theBuffer.hasRemaining() || theBuffer.get() != BINARY_FORMAT_VERSION) {
+            throw new IOException("Unsupported key pair format.");
+        }
+    }
+
+    /**
+     * Check that nothing follows the last field, so that every value has exactly one encoding
+     *
+     * @param theBuffer the buffer that has been read
+     * @throws IOException there are bytes left in the buffer
+     */
+    private static void readEnd(final ByteBuffer theBuffer) throws IOException {
+        if (theBuffer.hasRemaining()) {
+            throw new IOException("Unexpected bytes after the key pair.");
+        }
+    }
+
+    /**
+     * Read the length prefix of a field and check that the field is non-empty and fully present
+     *
+     * @param theBuffer the buffer to read from
+     * @return the length of the field
+     * @throws IOException the field is empty or truncated
+     */
+    private static int readLength(final ByteBuffer theBuffer) throws IOException {
+        if (theBuffer.remaining() < 2) {
+            throw new IOException("Truncated key pair.");
+        }
+        final int length = Short.toUnsignedInt(theBuffer.getShort());
+        if (length == 0 || length > theBuffer.remaining()) {
+            throw new IOException("Truncated key pair.");
+        }
+        return length;
+    }
+
+    /**
+     * Read a length-prefixed field as a BigInteger directly from the backing array of the buffer
+     *
+     * @param theBuffer the buffer to read from, which has to be backed by an array
+     * @return the field as a BigInteger
+     * @throws IOException the field is empty or truncated
+     */
+    private static BigInteger readBigInteger(final ByteBuffer theBuffer) throws IOException {
+        final int length = readLength(theBuffer);
+        final BigInteger value = new BigInteger(theBuffer.array(), theBuffer.arrayOffset() + theBuffer.position(), length);
+        theBuffer.position(theBuffer.position() + length);
+        return value;
     }
 
     /**
@@ -11,7 +11,9 @@ final class EllipticCurvePoint {
     private static final BigInteger PRIME = BigInteger.valueOf(2L).pow(448)
             .subtract(BigInteger.valueOf(2L).pow(224)).subtract(BigInteger.ONE);
     static final int STANDARD_BYTE_LENGTH = PRIME.toByteArray().length * 2;
+    static final int COMPRESSED_BYTE_LENGTH = STANDARD_BYTE_LENGTH / 2;
     private static final BigInteger DEFINE_E = BigInteger.valueOf(-39081);
+    private static final int WINDOW_BITS = 4;
     private final BigInteger myX;
     private final BigInteger myY;
 
@@ -49,7 +51,7 @@ final class EllipticCurvePoint {
     EllipticCurvePoint(final BigInteger theX, final boolean theLeastSignificantBit) {
         final BigInteger a = BigInteger.ONE.subtract(theX.pow(2)); // 1 - theX^2
         final BigInteger b = BigInteger.ONE.subtract(DEFINE_E.multiply(theX.pow(2))); // 1 - d * theX^2
-        final BigInteger y = sqrt(a.multiply(b.modInverse(PRIME)), theLeastSignificantBit); // sqrt( (1 - theX^2) / (1 - dx^2)) mod p
+        final BigInteger y = sqrt(a.multiply(invert(b)), theLeastSignificantBit); // sqrt( (1 - theX^2) / (1 - dx^2)) mod p
 
         if (y == null) {
             throw new IllegalArgumentException("No square root of the provided theX exists");
@@ -76,6 +78,31 @@ final class EllipticCurvePoint {
         return new EllipticCurvePoint(x, y);
     }
 
+    /**
+     * Generates a CurvePoint from its compressed byte array form, see {@link #toCompressedByteArray()}.
+     * The y coordinate is recovered through the square root constructor instead of being read.
+     *
+     * @param theCompressedCurvePoint Parameter for the compressed byte array representing the desired CurvePoint.
+     * @return Returns a CurvePoint parsed from the byte array.
+     */
+    static EllipticCurvePoint fromCompressedByteArray(final byte[] theCompressedCurvePoint) {
+        if (theCompressedCurvePoint.length != COMPRESSED_BYTE_LENGTH
+                || (theCompressedCurvePoint[COMPRESSED_BYTE_LENGTH - 1] & 0x7f) != 0) {
+            throw new IllegalArgumentException("The provided byte array is not formatted properly.");
+        }
+
+        final byte[] xBytes = new byte[COMPRESSED_BYTE_LENGTH];
+        for (int i = 0; i < COMPRESSED_BYTE_LENGTH - 1; i++) {
+            xBytes[COMPRESSED_BYTE_LENGTH - 1 - i] = theCompressedCurvePoint[i];
+        }
+        final BigInteger x = new BigInteger(xBytes);
+        if (x.compareTo(PRIME) >= 0) {
+            throw new IllegalArgumentException("The provided byte array is not formatted properly.");
+        }
+
+        return new EllipticCurvePoint(x, theCompressedCurvePoint[COMPRESSED_BYTE_LENGTH - 1] != 0);
+    }
+
     /**
      * Compute a square root of v mod p with specified the least significant bit, if such a root exists.
      *
@@ -103,6 +130,8 @@ final class EllipticCurvePoint {
      * @return Returns the given point multiplied by the parameter scalar.
      */
     EllipticCurvePoint scalarMultiply(final BigInteger s) {
+        final CryptoMetrics.ScalarMultiplyEvent event = new CryptoMetrics.ScalarMultiplyEvent();
+        event.begin();
         EllipticCurvePoint V = new EllipticCurvePoint();
         final int k = s.bitLength();
         for (int i = k - 1; i >= 0; i--) { // scan over the k bits of s
@@ -111,9 +140,185 @@ final class EllipticCurvePoint {
                 V = V.add(this); // invoke the Edwards point addition formula
             }
         }
+        CryptoMetrics.endScalarMultiply(event, k);
         return V; // now finally V = s*P
     }
 
+    /**
+     * Multiplies this point by a scalar and returns only the x coordinate of the result.
+     * The bits of s are scanned exactly like {@link #scalarMultiply(BigInteger)} does, but the intermediate
+     * points are kept in projective coordinates (X : Y : Z) with x = X / Z and y = Y / Z,
+     * so no inversion or curve check is done per step and y is never normalized at the end.
+     *
+     * @param s Parameter for the scalar to multiply by.
+     * @return Returns the x coordinate of this point multiplied by the parameter scalar.
+     */
+    BigInteger scalarMultiplyX(final BigInteger s) {
+        final BigInteger[] V = projectiveScalarMultiply(s);
+        return V[0].multiply(invert(V[2])).mod(PRIME);
+    }
+
+    /**
+     * Multiplies this point by a scalar and leaves the result in projective coordinates (X : Y : Z),
+     * scanning the bits of s exactly like {@link #scalarMultiply(BigInteger)} does.
+     * Many such results can be brought back to affine form together with {@link #toAffine(BigInteger[][])}.
+     *
+     * @param s Parameter for the scalar to multiply by.
+     * @return Returns this point multiplied by the parameter scalar as {X, Y, Z}.
+     */
+    BigInteger[] projectiveScalarMultiply(final BigInteger s) {
+        final CryptoMetrics.ScalarMultiplyEvent event = new CryptoMetrics.ScalarMultiplyEvent();
+        event.begin();
+        final BigInteger[] P = {myX, myY, BigInteger.ONE};
+        BigInteger[] V = {BigInteger.ZERO, BigInteger.ONE, BigInteger.ONE};
+        for (int i = s.bitLength() - 1; i >= 0; i--) {
+            V = projectiveAdd(V, V);
+            if (s.testBit(i)) {
+                V = projectiveAdd(V, P);
+            }
+        }
+        CryptoMetrics.endScalarMultiply(event, s.bitLength());
+        return V;
+    }
+
+    /**
+     * Converts many points from projective coordinates (X : Y : Z) to affine points using Montgomery's trick:
+     * the product of all Z is inverted once, and every single inverse 1/Z_i is peeled off that one inverse,
+     * which costs a single modInverse plus 3(N - 1) multiplications instead of N modInverse calls.
+     *
+     * @param thePoints Parameter for the points to convert, each given as {X, Y, Z}.
+     * @return Returns the affine points, in the same order as the parameter points.
+     */
+    static EllipticCurvePoint[] toAffine(final BigInteger[][] thePoints) {
+        final EllipticCurvePoint[] affine = new EllipticCurvePoint[thePoints.length];
+        if (thePoints.length == 0) {
+            return affine;
+        }
+        // prefix[i] = Z_0 * Z_1 * ... * Z_i
+        final BigInteger[] prefix = new BigInteger[thePoints.length];
+        prefix[0] = thePoints[0][2];
+        for (int i = 1; i < thePoints.length; i++) {
+            prefix[i] = prefix[i - 1].multiply(thePoints[i][2]).mod(PRIME);
+        }
+        // inverse = 1 / (Z_0 * ... * Z_i) at the start of each iteration
+        BigInteger inverse = invert(prefix[thePoints.length - 1]);
+        for (int i = thePoints.length - 1; i >= 0; i--) {
+            final BigInteger zInverse = i > 0 ? inverse.multiply(prefix[i - 1]).mod(PRIME) : inverse;
+            if (i > 0) {
+                inverse = inverse.multiply(thePoints[i][2]).mod(PRIME);
+            }
+            affine[i] = new EllipticCurvePoint(
+                    thePoints[i][0].multiply(zInverse).mod(PRIME), thePoints[i][1].multiply(zInverse).mod(PRIME)
+            );
+        }
+        return affine;
+    }
+
+    /**
+     * Precomputes the multiples 0*P, 1*P, ..., (2^WINDOW_BITS - 1)*P of this point in projective coordinates,
+     * to be used by {@link #scalarMultiplyX(BigInteger[][], BigInteger)}.
+     *
+     * @return Returns the table of multiples, entry j being j*P as {X, Y, Z}.
+     */
+    BigInteger[][] precomputeMultiples() {
+        final BigInteger[][] multiples = new BigInteger[1 << WINDOW_BITS][];
+        multiples[0] = new BigInteger[]{BigInteger.ZERO, BigInteger.ONE, BigInteger.ONE};
+        multiples[1] = new BigInteger[]{myX, myY, BigInteger.ONE};
+        for (int j = 2; j < multiples.length; j++) {
+            multiples[j] = projectiveAdd(multiples[j - 1], multiples[1]);
+        }
+        return multiples;
+    }
+
+    /**
+     * Multiplies the point behind a table from {@link #precomputeMultiples()} by a non-negative scalar
+     * and returns only the x coordinate of the result. The scalar is consumed WINDOW_BITS bits at a time,
+     * so only one table addition is needed per window instead of one addition per set bit.
+     *
+     * @param theMultiples Parameter for the precomputed multiples of the point.
+     * @param s            Parameter for the scalar to multiply by.
+     * @return Returns the x coordinate of the point multiplied by the parameter scalar.
+     */
+    static BigInteger scalarMultiplyX(final BigInteger[][] theMultiples, final BigInteger s) {
+        final CryptoMetrics.ScalarMultiplyEvent event = new CryptoMetrics.ScalarMultiplyEvent();
+        event.begin();
+        BigInteger[] V = theMultiples[0];
+        for (int i = (s.bitLength() + WINDOW_BITS - 1) / WINDOW_BITS - 1; i >= 0; i--) {
+            for (int j = 0; j < WINDOW_BITS; j++) {
+                V = projectiveAdd(V, V);
+            }
+            final int window = s.shiftRight(i * WINDOW_BITS).intValue() & ((1 << WINDOW_BITS) - 1);
+            if (window != 0) {
+                V = projectiveAdd(V, theMultiples[window]);
+            }
+        }
+        CryptoMetrics.endScalarMultiply(event, s.bitLength());
+        return V[0].multiply(invert(V[2])).mod(PRIME);
+    }
+
+    /**
+     * Adds two points given in projective coordinates (X : Y : Z), which is the same Edwards addition as
+     * {@link #add(EllipticCurvePoint)} with both divisions folded into Z:
+     * A = Z_1 * Z_2, B = A^2, C = X_1 * X_2, D = Y_1 * Y_2, E = d * C * D, F = B - E, G = B + E
+     * X = A * F * ((X_1 + Y_1) * (X_2 + Y_2) - C - D), Y = A * G * (D - C), Z = F * G
+     *
+     * @param P the first point as {X, Y, Z}
+     * @param Q the second point as {X, Y, Z}
+     * @return Returns P + Q as {X, Y, Z}
+     */
+    private static BigInteger[] projectiveAdd(final BigInteger[] P, final BigInteger[] Q) {
+        CryptoMetrics.POINT_ADDITIONS.increment();
+        final BigInteger A = P[2].multiply(Q[2]).mod(PRIME);
+        final BigInteger B = A.multiply(A).mod(PRIME);
+        final BigInteger C = P[0].multiply(Q[0]).mod(PRIME);
+        final BigInteger D = P[1].multiply(Q[1]).mod(PRIME);
+        final BigInteger E = DEFINE_E.multiply(C).multiply(D).mod(PRIME);
+        final BigInteger F = B.subtract(E);
+        final BigInteger G = B.add(E);
+        final BigInteger H = P[0].add(P[1]).multiply(Q[0].add(Q[1])).subtract(C).subtract(D);
+        return new BigInteger[]{
+                A.multiply(F).mod(PRIME).multiply(H).mod(PRIME),
+                A.multiply(G).mod(PRIME).multiply(D.subtract(C)).mod(PRIME),
+                F.multiply(G).mod(PRIME)
+        };
+    }
+
+    /**
+     * Computes s*P + t*Q in a single double-and-add pass (Shamir's trick), so the two products share
+     * one chain of doublings instead of paying for two. Each scalar's bits are scanned exactly the way
+     * {@link #scalarMultiply(BigInteger)} scans them, so the result always equals
+     * P.scalarMultiply(s).add(Q.scalarMultiply(t)).
+     *
+     * @param P the first point
+     * @param s the scalar for the first point
+     * @param Q the second point
+     * @param t the scalar for the second point
+     * @return Returns s*P + t*Q
+     */
+    static EllipticCurvePoint sumOfProducts(final EllipticCurvePoint P, final BigInteger s,
+                                            final EllipticCurvePoint Q, final BigInteger t) {
+        final CryptoMetrics.ScalarMultiplyEvent event = new CryptoMetrics.ScalarMultiplyEvent();
+        event.begin();
+        final EllipticCurvePoint PQ = P.add(Q);
+        final int sLength = s.bitLength();
+        final int tLength = t.bitLength();
+        EllipticCurvePoint V = new EllipticCurvePoint();
+        for (int i = Math.max(sLength, tLength) - 1; i >= 0; i--) {
+            V = V.add(V);
+            final boolean sBit = i < sLength && s.testBit(i);
+            final boolean tBit = i < tLength && t.testBit(i);
+            if (sBit && tBit) {
+                V = V.add(PQ);
+            } else if (sBit) {
+                V = V.add(P);
+            } else if (tBit) {
+                V = V.add(Q);
+            }
+        }
+        CryptoMetrics.endScalarMultiply(event, Math.max(sLength, tLength));
+        return V;
+    }
+
     /**
      * Adds this to theAddedPoint and returns the result. The addition is based on this formula:
      * x = ((x_1 * y_2 + y_2 * x_2) / (1 + d * x_1 * x_2 * y_1 * y_2)) mod p
@@ -123,19 +328,31 @@ final class EllipticCurvePoint {
      * @return Returns this + theAddedPoint (based upon the formula described above)
      */
     EllipticCurvePoint add(final EllipticCurvePoint theAddedPoint) {
+        CryptoMetrics.POINT_ADDITIONS.increment();
         final BigInteger xy = myX.multiply(theAddedPoint.myX).multiply(myY.multiply(theAddedPoint.myY));
 
         BigInteger a = myX.multiply(theAddedPoint.myY).add(myY.multiply(theAddedPoint.myX));
         BigInteger b = BigInteger.ONE.add(DEFINE_E.multiply(xy));
-        final BigInteger c = a.multiply(b.modInverse(PRIME)).mod(PRIME);
+        final BigInteger c = a.multiply(invert(b)).mod(PRIME);
 
         a = myY.multiply(theAddedPoint.myY).subtract(myX.multiply(theAddedPoint.myX));
         b = BigInteger.ONE.subtract(DEFINE_E.multiply(xy));
-        final BigInteger d = a.multiply(b.modInverse(PRIME)).mod(PRIME);
+        final BigInteger d = a.multiply(invert(b)).mod(PRIME);
 
         return new EllipticCurvePoint(c, d);
     }
 
+    /**
+     * Computes the inverse of v mod p, counting every call since inversions are by far the most expensive step.
+     *
+     * @param v Parameter for the value to invert.
+     * @return Returns 1 / v mod p.
+     */
+    private static BigInteger invert(final BigInteger v) {
+        CryptoMetrics.MODULAR_INVERSIONS.increment();
+        return v.modInverse(PRIME);
+    }
+
     /**
      * Converts this CurvePoint to a byte array of a standard fixed size.
      *
@@ -162,6 +379,23 @@ final class EllipticCurvePoint {
         return asBytes;
     }
 
+    /**
+     * Converts this CurvePoint to its compressed byte array form in the style of Ed448:
+     * x as 56 little-endian bytes followed by one byte whose top bit is the least significant bit of y.
+     * Only half of {@link #STANDARD_BYTE_LENGTH} is needed since y can be recomputed from x.
+     *
+     * @return Returns an unambiguous compressed byte array representation of this curve point.
+     */
+    byte[] toCompressedByteArray() {
+        final byte[] asBytes = new byte[COMPRESSED_BYTE_LENGTH];
+        final byte[] xBytes = myX.toByteArray();
+        for (int i = 0; i < Math.min(xBytes.length, COMPRESSED_BYTE_LENGTH - 1); i++) {
+            asBytes[i] = xBytes[xBytes.length - 1 - i];
+        }
+        asBytes[COMPRESSED_BYTE_LENGTH - 1] = (byte) (myY.testBit(0) ? 0x80 : 0x00);
+        return asBytes;
+    }
+
     /**
      * Getter for the myX variable.
      *
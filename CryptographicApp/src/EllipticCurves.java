@@ -1,6 +1,17 @@
 import java.io.IOException;
 import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.IntStream;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertNotEquals;
@@ -19,6 +30,31 @@ public class EllipticCurves {
     private static final EllipticCurvePoint G = new EllipticCurvePoint(
             new BigInteger("181709681073901722637330951972001133588410340"), false
     );
+    /**
+     * Leading byte of public keys and cryptograms whose points use the compressed encoding.
+     * Legacy points always start with 0x00 since x is a non-negative BigInteger, so the two never collide.
+     */
+    static final byte COMPRESSED_POINT_VERSION = 0x01;
+    /**
+     * Byte length of a public key fingerprint
+     */
+    static final int FINGERPRINT_LEN = 16;
+    /**
+     * How much of a file is mapped into memory at once while it is being pre-hashed
+     */
+    private static final long PRE_HASH_WINDOW = 64L * 1024 * 1024;
+    /**
+     * Recently used recipient public keys, decoded and with their multiples precomputed
+     */
+    private static final PublicKeyCache RECIPIENTS = new PublicKeyCache(512);
+    /**
+     * The optional pool of precomputed ephemeral key pairs, null if the pairs are generated inline
+     */
+    private static volatile EphemeralKeyPool ephemeralKeyPool;
+    /**
+     * The optional cache of recent verification results, null if every signature is verified in full
+     */
+    private static volatile VerificationCache verificationCache;
 
     public static void main(final String[] args) {
         // 0*G = O
@@ -40,6 +76,19 @@ public class EllipticCurves {
             assertEquals(G.scalarMultiply(k.add(BigInteger.ONE)), G.scalarMultiply(k).add(G));
             assertEquals(G.scalarMultiply(k.add(t)), G.scalarMultiply(k).add(G.scalarMultiply(t)));
             assertEquals(G.scalarMultiply(k).scalarMultiply(t), G.scalarMultiply(k.multiply(t).mod(R)));
+            assertEquals(G.scalarMultiplyX(k), G.scalarMultiply(k).getX());
+            assertEquals(decodePoint(encodePoint(G.scalarMultiply(k))), G.scalarMultiply(k));
+            assertEquals(EllipticCurvePoint.scalarMultiplyX(G.precomputeMultiples(), k), G.scalarMultiply(k).getX());
+        }
+        // sign -> verify, about half of the messages give a negative h
+        final byte[] pw = Glossary.random(256);
+        final EllipticCurvePoint V = decodePoint(getSchnorrKeyPair(pw).getPublicKey());
+        for (int i = 0; i < 32; i++) {
+            final byte[] m = Glossary.random(8 * i);
+            final EllipticCurveKeyPair theSignature = getSignature(m, pw);
+            final BigInteger[] hz = {new BigInteger(theSignature.getPrivateKey()), new BigInteger(theSignature.getPublicKey())};
+            assertEquals(true, verifySignature(hz, m, V));
+            assertEquals(false, verifySignature(hz, Glossary.array_concatenation(m, new byte[]{1}), V));
         }
     }
 
@@ -50,10 +99,146 @@ public class EllipticCurves {
      * @return a (Schnorr/DHIES) key pair
      */
     static EllipticCurveKeyPair getSchnorrKeyPair(final byte[] pw) {
-        BigInteger s = new BigInteger(Keccak.KMACXOF256(pw, new byte[]{}, 512, "SK"));
-        s = s.multiply(BIG_INT_FOUR).mod(R);
+        final BigInteger s = getPrivateScalar(pw);
         final EllipticCurvePoint V = G.scalarMultiply(s);
-        return new EllipticCurveKeyPair(s.toByteArray(), V.toByteArray());
+        return new EllipticCurveKeyPair(s.toByteArray(), encodePoint(V));
+    }
+
+    /**
+     * Generating many (Schnorr/DHIES) key pairs at once, one for each passphrase.
+     * The scalar multiplications run in parallel across all cores and stay in projective coordinates,
+     * then all public keys are brought back to affine form together with a single modular inversion.
+     *
+     * @param pws passphrases
+     * @return the (Schnorr/DHIES) key pairs, in the same order as the passphrases
+     */
+    static List<EllipticCurveKeyPair> getSchnorrKeyPairs(final List<byte[]> pws) {
+        final BigInteger[] s = new BigInteger[pws.size()];
+        final BigInteger[][] V = new BigInteger[pws.size()][];
+        IntStream.range(0, s.length).parallel().forEach(i -> {
+            s[i] = getPrivateScalar(pws.get(i));
+            V[i] = G.projectiveScalarMultiply(s[i]);
+        });
+        final EllipticCurvePoint[] affineV = EllipticCurvePoint.toAffine(V);
+        final List<EllipticCurveKeyPair> keyPairs = new ArrayList<>(s.length);
+        for (int i = 0; i < s.length; i++) {
+            keyPairs.add(new EllipticCurveKeyPair(s[i].toByteArray(), encodePoint(affineV[i])));
+        }
+        return keyPairs;
+    }
+
+    /**
+     * Computing the encoded public key V = s*G for the private scalar s
+     *
+     * @param s the private scalar
+     * @return the encoded public key
+     */
+    static byte[] getPublicKey(final BigInteger s) {
+        return encodePoint(EllipticCurvePoint.toAffine(new BigInteger[][]{G.projectiveScalarMultiply(s)})[0]);
+    }
+
+    /**
+     * Computing the fingerprint KMACXOF256(V, "", 128, "FP") of a public key. V is re-encoded in the compressed form
+     * first, so the legacy and the compressed encoding of the same key have the same fingerprint.
+     *
+     * @param V the encoded public key
+     * @return the fingerprint
+     */
+    static byte[] getFingerprint(final byte[] V) {
+        return Keccak.KMACXOF256(encodePoint(decodePoint(V)), new byte[]{}, FINGERPRINT_LEN * 8, "FP");
+    }
+
+    /**
+     * Deriving the private scalar s = 4 * KMACXOF256(pw, "", 512, "SK") mod r from passphrase
+     *
+     * @param pw passphrase
+     * @return the private scalar
+     */
+    static BigInteger getPrivateScalar(final byte[] pw) {
+        return new BigInteger(Keccak.KMACXOF256(pw, new byte[]{}, 512, "SK")).multiply(BIG_INT_FOUR).mod(R);
+    }
+
+    /**
+     * Encoding a point as a versioned compressed byte array, which is used for public keys and cryptogram headers
+     *
+     * @param P the point to be encoded
+     * @return the version byte followed by the compressed point
+     */
+    static byte[] encodePoint(final EllipticCurvePoint P) {
+        return Glossary.array_concatenation(new byte[]{COMPRESSED_POINT_VERSION}, P.toCompressedByteArray());
+    }
+
+    /**
+     * Decoding a point (such as a public key) from either the versioned compressed form or the legacy uncompressed form
+     *
+     * @param V the encoded point
+     * @return the decoded point
+     */
+    static EllipticCurvePoint decodePoint(final byte[] V) {
+        if (V.length > 0 && V[0] == COMPRESSED_POINT_VERSION) {
+            return EllipticCurvePoint.fromCompressedByteArray(Arrays.copyOfRange(V, 1, V.length));
+        }
+        return EllipticCurvePoint.fromByteArray(V);
+    }
+
+    /**
+     * Start precomputing ephemeral key pairs for {@link #encrypt(byte[], byte[])} in the background,
+     * replacing any pool that was enabled before
+     *
+     * @param capacity the maximum number of pairs that will be kept ready
+     */
+    static synchronized void enableEphemeralKeyPool(final int capacity) {
+        disableEphemeralKeyPool();
+        ephemeralKeyPool = new EphemeralKeyPool(capacity);
+    }
+
+    /**
+     * Stop precomputing ephemeral key pairs and go back to generating them inline
+     */
+    static synchronized void disableEphemeralKeyPool() {
+        final EphemeralKeyPool pool = ephemeralKeyPool;
+        ephemeralKeyPool = null;
+        if (pool != null) {
+            pool.close();
+        }
+    }
+
+    /**
+     * Start remembering the results of {@link #verifySignature(byte[], byte[], byte[])} and
+     * {@link #verifySignatures(List, List, List)}, replacing any cache that was enabled before
+     *
+     * @param capacity         the maximum number of results that will be kept
+     * @param timeToLiveMillis how long a result is kept, in milliseconds
+     */
+    static void enableVerificationCache(final int capacity, final long timeToLiveMillis) {
+        verificationCache = new VerificationCache(capacity, timeToLiveMillis);
+    }
+
+    /**
+     * Stop remembering verification results
+     */
+    static void disableVerificationCache() {
+        verificationCache = null;
+    }
+
+    /**
+     * Get the cache of verification results
+     *
+     * @return the cache, or null if it is not enabled
+     */
+    static VerificationCache getVerificationCache() {
+        return verificationCache;
+    }
+
+    /**
+     * Generating a fresh ephemeral key pair (k, Z = k*G) for public key encryption
+     *
+     * @return a new ephemeral key pair
+     */
+    static EphemeralKeyPool.EphemeralKey newEphemeralKey() {
+        BigInteger k = new BigInteger(Glossary.random(512));
+        k = k.multiply(BIG_INT_FOUR).mod(R);
+        return new EphemeralKeyPool.EphemeralKey(k.toByteArray(), encodePoint(G.scalarMultiply(k)));
     }
 
     /**
@@ -64,11 +249,30 @@ public class EllipticCurves {
      * @return cryptogram
      */
     static byte[] encrypt(final byte[] m, final byte[] V) {
-        BigInteger k = new BigInteger(Glossary.random(512));
-        k = k.multiply(BIG_INT_FOUR).mod(R);
-        final EllipticCurvePoint W = EllipticCurvePoint.fromByteArray(V).scalarMultiply(k);
-        final EllipticCurvePoint Z = G.scalarMultiply(k);
-        final byte[] ke_ka = Keccak.KMACXOF256(W.getX().toByteArray(), new byte[]{}, 1024, "PK");
+        final CryptoMetrics.Timer timer = CryptoMetrics.start(CryptoMetrics.Operation.EC_ENCRYPT, m.length);
+        final EphemeralKeyPool pool = ephemeralKeyPool;
+        final EphemeralKeyPool.EphemeralKey ephemeral = pool != null ? pool.take() : newEphemeralKey();
+        try {
+            return encrypt(m, V, ephemeral);
+        } finally {
+            ephemeral.destroy();
+            timer.end();
+        }
+    }
+
+    /**
+     * Encrypting a byte array m under the (Schnorr/DHIES) public key V with the given ephemeral key pair
+     *
+     * @param m         message to be encrypted
+     * @param V         public key to be used
+     * @param ephemeral the ephemeral key pair (k, Z) that will be used
+     * @return cryptogram
+     */
+    private static byte[] encrypt(final byte[] m, final byte[] V, final EphemeralKeyPool.EphemeralKey ephemeral) {
+        final BigInteger k = ephemeral.getScalar();
+        // only the x coordinate of W = k*V is used, so it is computed without ever normalizing y
+        final BigInteger W_x = RECIPIENTS.get(V).scalarMultiplyX(k);
+        final byte[] ke_ka = Keccak.KMACXOF256(W_x.toByteArray(), new byte[]{}, 1024, "PK");
         final byte[] ke = Glossary.substring(ke_ka, 0, ke_ka.length / 2);
         final byte[] ka = Glossary.substring(ke_ka, ke_ka.length / 2, ke_ka.length);
         final byte[] c = Keccak.KMACXOF256(ke, new byte[]{}, m.length * 8, "PKE");
@@ -77,37 +281,78 @@ public class EllipticCurves {
             c[i] = (byte) (c[i] ^ m[i]);
         }
         final byte[] t = Keccak.KMACXOF256(ka, m, 512, "PKA");
-        return Glossary.array_concatenation(Z.toByteArray(), c, t);
+        return Glossary.array_concatenation(ephemeral.getEncodedPoint(), c, t);
     }
 
     /**
-     * Decrypting a cryptogram (Z, c, t) under passphrase pw
+     * Decrypting a cryptogram (Z, c, t) under passphrase pw, Z being either compressed or in the legacy form
      *
      * @param data cryptogram
      * @param pw   passphrase
      * @return decrypted data
      */
     static byte[] decrypt(final byte[] data, final byte[] pw) {
-        // obtain z, c and t from data
-        final byte[] Z = Arrays.copyOfRange(data, 0, EllipticCurvePoint.STANDARD_BYTE_LENGTH);
-        final byte[] c = Arrays.copyOfRange(data, Z.length, data.length - 64);
-        final byte[] t = Arrays.copyOfRange(data, Z.length + c.length, data.length);
-        BigInteger s = new BigInteger(Keccak.KMACXOF256(pw, new byte[]{}, 512, "SK"));
-        s = s.multiply(BIG_INT_FOUR).mod(R);
-        final EllipticCurvePoint W = EllipticCurvePoint.fromByteArray(Z).scalarMultiply(s);
-        final byte[] ke_ka = Keccak.KMACXOF256(W.getX().toByteArray(), new byte[]{}, 1024, "PK");
-        final byte[] ke = Glossary.substring(ke_ka, 0, ke_ka.length / 2);
-        final byte[] ka = Glossary.substring(ke_ka, ke_ka.length / 2, ke_ka.length);
-        final byte[] m = Keccak.KMACXOF256(ke, new byte[]{}, c.length * 8, "PKE");
-        // xor m with c
-        for (int i = 0; i < m.length; i++) {
-            m[i] = (byte) (m[i] ^ c[i]);
-        }
-        final byte[] t_inv = Keccak.KMACXOF256(ka, m, 512, "PKA");
-        if (!Arrays.equals(t_inv, t)) {
-            throw new IllegalArgumentException("Invalid z potentially due to incorrect passphrase!");
+        return decrypt(data, getPrivateScalar(pw));
+    }
+
+    /**
+     * Decrypting a cryptogram (Z, c, t) under a private key handle
+     *
+     * @param data cryptogram
+     * @param key  the private key handle
+     * @return decrypted data
+     */
+    static byte[] decrypt(final byte[] data, final PrivateKeyHandle key) {
+        return decrypt(data, key.getScalar());
+    }
+
+    /**
+     * Decrypting many cryptograms under one private key handle, in parallel across all cores
+     *
+     * @param data cryptograms
+     * @param key  the private key handle
+     * @return decrypted data, in the same order as the cryptograms
+     * @throws IllegalArgumentException if any cryptogram cannot be decrypted
+     */
+    static List<byte[]> decrypt(final List<byte[]> data, final PrivateKeyHandle key) {
+        final BigInteger s = key.getScalar();
+        final byte[][] m = new byte[data.size()][];
+        IntStream.range(0, m.length).parallel().forEach(i -> m[i] = decrypt(data.get(i), s));
+        return Arrays.asList(m);
+    }
+
+    /**
+     * Decrypting a cryptogram (Z, c, t) under the private scalar s
+     *
+     * @param data cryptogram
+     * @param s    the private scalar
+     * @return decrypted data
+     */
+    private static byte[] decrypt(final byte[] data, final BigInteger s) {
+        final CryptoMetrics.Timer timer = CryptoMetrics.start(CryptoMetrics.Operation.EC_DECRYPT, data.length);
+        try {
+            // obtain z, c and t from data
+            final byte[] Z = Arrays.copyOfRange(data, 0, data.length > 0 && data[0] == COMPRESSED_POINT_VERSION
+                    ? 1 + EllipticCurvePoint.COMPRESSED_BYTE_LENGTH : EllipticCurvePoint.STANDARD_BYTE_LENGTH);
+            final byte[] c = Arrays.copyOfRange(data, Z.length, data.length - 64);
+            final byte[] t = Arrays.copyOfRange(data, Z.length + c.length, data.length);
+            final BigInteger W_x = decodePoint(Z).scalarMultiplyX(s);
+            final byte[] ke_ka = Keccak.KMACXOF256(W_x.toByteArray(), new byte[]{}, 1024, "PK");
+            final byte[] ke = Glossary.substring(ke_ka, 0, ke_ka.length / 2);
+            final byte[] ka = Glossary.substring(ke_ka, ke_ka.length / 2, ke_ka.length);
+            final byte[] m = Keccak.KMACXOF256(ke, new byte[]{}, c.length * 8, "PKE");
+            // xor m with c
+            for (int i = 0; i < m.length; i++) {
+                m[i] = (byte) (m[i] ^ c[i]);
+            }
+            final byte[] t_inv = Keccak.KMACXOF256(ka, m, 512, "PKA");
+            if (!Arrays.equals(t_inv, t)) {
+                throw new IllegalArgumentException("Invalid z potentially due to incorrect passphrase!");
+            }
+            return m;
+        } finally {
+            timer.end();
         }
-        return m;
     }
 
     /**
@@ -118,14 +363,113 @@ public class EllipticCurves {
      * @return a signature
      */
     static EllipticCurveKeyPair getSignature(final byte[] m, final byte[] pw) {
-        BigInteger s = new BigInteger(Keccak.KMACXOF256(pw, new byte[]{}, 512, "SK"));
-        s = s.multiply(BIG_INT_FOUR).mod(R);
-        BigInteger k = new BigInteger(Keccak.KMACXOF256(s.toByteArray(), m, 512, "N"));
-        k = k.multiply(BIG_INT_FOUR).mod(R);
-        final EllipticCurvePoint U = G.scalarMultiply(k);
-        final BigInteger h = new BigInteger(Keccak.KMACXOF256(U.getX().toByteArray(), m, 512, "T"));
-        final BigInteger z = k.subtract(h.multiply(s)).mod(R);
-        return new EllipticCurveKeyPair(h.toByteArray(), z.toByteArray());
+        final BigInteger s = getPrivateScalar(pw);
+        return getSignature(m, s, Keccak.KMACXOF256(s.toByteArray(), m, 512, "N"));
+    }
+
+    /**
+     * Generating a signature for a byte array m under a private key handle
+     *
+     * @param m   the data to be signed
+     * @param key the private key handle
+     * @return a signature
+     */
+    static EllipticCurveKeyPair getSignature(final byte[] m, final PrivateKeyHandle key) {
+        return getSignature(m, key.getScalar(), key.getNonce(m));
+    }
+
+    /**
+     * Generating signatures for many byte arrays under one private key handle, in parallel across all cores
+     *
+     * @param m   the data to be signed
+     * @param key the private key handle
+     * @return the signatures, in the same order as the data
+     */
+    static List<EllipticCurveKeyPair> getSignatures(final List<byte[]> m, final PrivateKeyHandle key) {
+        final BigInteger s = key.getScalar();
+        final EllipticCurveKeyPair[] signatures = new EllipticCurveKeyPair[m.size()];
+        IntStream.range(0, signatures.length).parallel()
+                .forEach(i -> signatures[i] = getSignature(m.get(i), s, key.getNonce(m.get(i))));
+        return Arrays.asList(signatures);
+    }
+
+    /**
+     * Generating a signature for a byte array m under the private scalar s
+     *
+     * @param m     the data to be signed
+     * @param s     the private scalar
+     * @param nonce KMACXOF256(s, m, 512, "N")
+     * @return a signature
+     */
+    private static EllipticCurveKeyPair getSignature(final byte[] m, final BigInteger s, final byte[] nonce) {
+        final CryptoMetrics.Timer timer = CryptoMetrics.start(CryptoMetrics.Operation.EC_SIGN, m.length);
+        try {
+            final BigInteger k = new BigInteger(nonce).multiply(BIG_INT_FOUR).mod(R);
+            final EllipticCurvePoint U = G.scalarMultiply(k);
+            final BigInteger h = new BigInteger(Keccak.KMACXOF256(U.getX().toByteArray(), m, 512, "T"));
+            final BigInteger z = k.subtract(h.multiply(s)).mod(R);
+            return new EllipticCurveKeyPair(h.toByteArray(), z.toByteArray());
+        } finally {
+            timer.end();
+        }
+    }
+
+    /**
+     * Computing the digest KMACXOF256("", m, 512, "PH") that pre-hashed signatures are made over
+     *
+     * @param m the data to be digested
+     * @return the digest
+     */
+    static byte[] preHash(final byte[] m) {
+        return Keccak.KMACXOF256(new byte[]{}, m, 512, "PH");
+    }
+
+    /**
+     * Computing the same digest as {@link #preHash(byte[])} over a file, in one sequential pass over
+     * memory-mapped windows of the file, so the file is never held in memory as a whole
+     *
+     * @param file the file to be digested
+     * @return the digest
+     * @throws IOException fail to read the file
+     */
+    static byte[] preHash(final Path file) throws IOException {
+        final Keccak.Sponge theSponge = Keccak.newKMACXOF256(new byte[]{}, "PH");
+        try (final FileChannel theChannel = FileChannel.open(file, StandardOpenOption.READ)) {
+            final long size = theChannel.size();
+            for (long position = 0; position < size; position += PRE_HASH_WINDOW) {
+                final MappedByteBuffer theWindow = theChannel.map(
+                        FileChannel.MapMode.READ_ONLY, position, Math.min(PRE_HASH_WINDOW, size - position));
+                theSponge.update(theWindow);
+            }
+        }
+        return theSponge.digest(512);
+    }
+
+    /**
+     * Generating a pre-hashed signature for a file under passphrase pw, which is a signature over the
+     * digest of the file instead of the file itself, so the file is only read once
+     *
+     * @param file the file to be signed
+     * @param pw   passphrase
+     * @return a signature
+     * @throws IOException fail to read the file
+     */
+    static EllipticCurveKeyPair getPreHashedSignature(final Path file, final byte[] pw) throws IOException {
+        return getSignature(preHash(file), pw);
+    }
+
+    /**
+     * Verifying a pre-hashed signature for a file under the (Schnorr/ DHIES) public key V
+     *
+     * @param signature the signature to be verified
+     * @param file      the file to be verified
+     * @param V         public key
+     * @return whether signature can verify the file
+     * @throws IOException            something went wrong
+     * @throws ClassNotFoundException something went wrong
+     */
+    static boolean verifyPreHashedSignature(final byte[] signature, final Path file, final byte[] V) throws IOException, ClassNotFoundException {
+        return verifySignature(signature, preHash(file), V);
     }
 
     /**
@@ -139,10 +483,83 @@ public class EllipticCurves {
      * @throws ClassNotFoundException something went wrong
      */
     static boolean verifySignature(final byte[] signature, final byte[] m, final byte[] V) throws IOException, ClassNotFoundException {
-        final EllipticCurveKeyPair theSignature = EllipticCurveKeyPair.fromByteArray(signature);
-        final BigInteger h = new BigInteger(theSignature.getPrivateKey());
-        final BigInteger z = new BigInteger(theSignature.getPublicKey());
-        final EllipticCurvePoint U = G.scalarMultiply(z).add(EllipticCurvePoint.fromByteArray(V).scalarMultiply(h));
-        return new BigInteger(Keccak.KMACXOF256(U.getX().toByteArray(), m, 512, "T")).equals(h);
+        final VerificationCache cache = verificationCache;
+        if (cache == null) {
+            return verifySignature(EllipticCurveKeyPair.readSignature(signature), m, decodePoint(V));
+        }
+        final ByteBuffer key = cache.digest(signature, m, V);
+        final Boolean cached = cache.get(key);
+        if (cached != null) {
+            return cached;
+        }
+        final boolean valid = verifySignature(EllipticCurveKeyPair.readSignature(signature), m, decodePoint(V));
+        cache.put(key, valid);
+        return valid;
+    }
+
+    /**
+     * Verifying many signatures at once, entry i being the signature, data and public key at index i of each list.
+     * Entries are checked in parallel across all cores and every distinct public key is decoded only once.
+     * Results are looked up in and added to the verification cache if it is enabled.
+     * A malformed signature or public key only fails its own entry instead of aborting the whole batch.
+     *
+     * @param signatures the signatures to be verified
+     * @param messages   the data to be verified
+     * @param publicKeys the public keys
+     * @return whether each signature can verify its data
+     */
+    static boolean[] verifySignatures(final List<byte[]> signatures, final List<byte[]> messages, final List<byte[]> publicKeys) {
+        if (signatures.size() != messages.size() || signatures.size() != publicKeys.size()) {
+            throw new IllegalArgumentException("Signatures, messages and public keys have to be of the same count!");
+        }
+        final Map<ByteBuffer, Optional<EllipticCurvePoint>> decodedKeys = new ConcurrentHashMap<>();
+        final VerificationCache cache = verificationCache;
+        final boolean[] results = new boolean[signatures.size()];
+        IntStream.range(0, results.length).parallel().forEach(i -> {
+            final ByteBuffer cacheKey = cache == null ? null : cache.digest(signatures.get(i), messages.get(i), publicKeys.get(i));
+            final Boolean cached = cache == null ? null : cache.get(cacheKey);
+            if (cached != null) {
+                results[i] = cached;
+                return;
+            }
+            final Optional<EllipticCurvePoint> V = decodedKeys.computeIfAbsent(ByteBuffer.wrap(publicKeys.get(i)), key -> {
+                try {
+                    return Optional.of(decodePoint(publicKeys.get(i)));
+                } catch (final IllegalArgumentException e) {
+                    return Optional.empty();
+                }
+            });
+            try {
+                results[i] = V.isPresent()
+                        && verifySignature(EllipticCurveKeyPair.readSignature(signatures.get(i)), messages.get(i), V.get());
+                if (cache != null && V.isPresent()) {
+                    cache.put(cacheKey, results[i]);
+                }
+            } catch (final IOException | ClassNotFoundException | ClassCastException e) {
+                results[i] = false;
+            }
+        });
+        return results;
+    }
+
+    /**
+     * Verifying a decoded signature (h, z) for a byte array m under an already decoded public key V
+     *
+     * @param theSignature the signature to be verified as the array {h, z}
+     * @param m            the data to be verified
+     * @param V            public key
+     * @return whether signature can verify data
+     */
+    private static boolean verifySignature(final BigInteger[] theSignature, final byte[] m, final EllipticCurvePoint V) {
+        final CryptoMetrics.Timer timer = CryptoMetrics.start(CryptoMetrics.Operation.EC_VERIFY, m.length);
+        try {
+            final BigInteger h = theSignature[0];
+            final BigInteger z = theSignature[1];
+            // h is read as a signed number, but sumOfProducts scans the bits of a non-negative scalar
+            final EllipticCurvePoint U = EllipticCurvePoint.sumOfProducts(G, z, V, h.mod(R));
+            return new BigInteger(Keccak.KMACXOF256(U.getX().toByteArray(), m, 512, "T")).equals(h);
+        } finally {
+            timer.end();
+        }
     }
 }
@@ -0,0 +1,125 @@
+import java.math.BigInteger;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * A bounded pool of ephemeral (k, k*G) pairs for public key encryption, kept full by a background thread.
+ * Neither k nor k*G depend on the message or the recipient, so precomputing them takes the fixed-base
+ * multiplication off the encryption path. Every pair is handed out exactly once and should be destroyed after use.
+ *
+ * @author Yudong Lin
+ */
+final class EphemeralKeyPool implements AutoCloseable {
+    private final BlockingQueue<EphemeralKey> myKeys;
+    private final Thread myRefiller;
+    private volatile boolean myClosed;
+
+    /**
+     * Create a new pool and start filling it in the background
+     *
+     * @param theCapacity the maximum number of pairs that will be kept ready
+     */
+    EphemeralKeyPool(final int theCapacity) {
+        this.myKeys = new ArrayBlockingQueue<>(theCapacity);
+        this.myRefiller = new Thread(this::refill, "ephemeral-key-pool");
+        this.myRefiller.setDaemon(true);
+        this.myRefiller.setPriority(Thread.MIN_PRIORITY);
+        this.myRefiller.start();
+    }
+
+    /**
+     * Keep generating pairs until the pool is closed, waiting whenever the pool is full
+     */
+    private void refill() {
+        while (!myClosed) {
+            final EphemeralKey theKey = EllipticCurves.newEphemeralKey();
+            try {
+                myKeys.put(theKey);
+            } catch (final InterruptedException e) {
+                theKey.destroy();
+                return;
+            }
+        }
+    }
+
+    /**
+     * Take a pair out of the pool. If the pool has run dry the pair is generated on the calling thread
+     * instead of waiting for the background thread, and so it is if the pool has been closed, since a caller
+     * may have got hold of the pool just before it was replaced or disabled.
+     *
+     * @return a pair that has never been handed out before
+     */
+    EphemeralKey take() {
+        final EphemeralKey theKey = myClosed ? null : myKeys.poll();
+        return theKey != null ? theKey : EllipticCurves.newEphemeralKey();
+    }
+
+    /**
+     * Get the number of pairs that are ready to be taken
+     *
+     * @return the number of pairs in the pool
+     */
+    int size() {
+        return myKeys.size();
+    }
+
+    /**
+     * Stop the background thread and destroy every pair that has not been taken
+     */
+    @Override
+    public void close() {
+        myClosed = true;
+        myRefiller.interrupt();
+        EphemeralKey theKey;
+        while ((theKey = myKeys.poll()) != null) {
+            theKey.destroy();
+        }
+    }
+
+    /**
+     * An ephemeral scalar k together with the encoded point k*G.
+     */
+    static final class EphemeralKey {
+        private final byte[] myScalar;
+        private final byte[] myEncodedPoint;
+
+        /**
+         * Create a new pair
+         *
+         * @param theScalar       the scalar k
+         * @param theEncodedPoint the encoded point k*G
+         */
+        EphemeralKey(final byte[] theScalar, final byte[] theEncodedPoint) {
+            this.myScalar = theScalar;
+            this.myEncodedPoint = theEncodedPoint;
+        }
+
+        /**
+         * Getter for the scalar k.
+         *
+         * @return Returns the scalar k.
+         */
+        BigInteger getScalar() {
+            return new BigInteger(this.myScalar);
+        }
+
+        /**
+         * Getter for the encoded point k*G.
+         *
+         * @return Returns the encoded point k*G.
+         */
+        byte[] getEncodedPoint() {
+            return this.myEncodedPoint;
+        }
+
+        /**
+         * Overwrite the pair with zeros so that it can no longer be recovered from memory.
+         * BigInteger copies handed out by {@link #getScalar()} are immutable and cannot be cleared.
+         */
+        void destroy() {
+            Arrays.fill(myScalar, (byte) 0);
+            Arrays.fill(myEncodedPoint, (byte) 0);
+        }
+    }
+}
@@ -1,6 +1,6 @@
 import org.junit.jupiter.api.Test;
 
-import java.security.SecureRandom;
+import java.io.PrintStream;
 import java.util.Arrays;
 
 import static org.junit.jupiter.api.Assertions.assertArrayEquals;
@@ -159,27 +159,17 @@ final class Glossary {
     }
 
     static void displayBytes(final byte[] X) {
-        final int itemsPerLine = 16;
-        for (int i = 0; i <= X.length / itemsPerLine; i++) {
-            for (int a = 0; a < itemsPerLine; a++) {
-                final int abs_index = i * itemsPerLine + a;
-                if (abs_index >= X.length) {
-                    System.out.println();
-                    return;
-                }
-                System.out.printf("%02x ", X[abs_index]);
-            }
-            System.out.println();
-        }
+        displayBytes(System.out, X);
+    }
+
+    static void displayBytes(final PrintStream out, final byte[] X) {
+        Armor.writeHexDump(out, X);
     }
 
     static byte[] random(final int l) {
         if (l % 8 != 0) {
             throw new IllegalArgumentException("The length has to be a multiple of 8!");
         }
-        final SecureRandom theRandom = new SecureRandom();
-        final byte[] result = new byte[l / 8];
-        theRandom.nextBytes(result);
-        return result;
+        return KeccakDrbg.generate(l / 8);
     }
 }
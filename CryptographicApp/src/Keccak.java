@@ -1,3 +1,4 @@
+import java.nio.ByteBuffer;
 import java.util.Arrays;
 
 /**
@@ -90,6 +91,22 @@ final class Keccak {
         return cSHAKE256(newIn, bitLength, "KMAC", customizationStr);
     }
 
+    /**
+     * Starts an incremental KMACXOF256 computation, for data that is too large to be held in memory at once.
+     * Absorbing X piece by piece and then squeezing L bits gives the same result as KMACXOF256(K, X, L, S).
+     *
+     * @param key              Parameter for the key.
+     * @param customizationStr Parameter for the customization string.
+     * @return Returns a sponge that has absorbed everything that comes before the input bytes.
+     */
+    public static Sponge newKMACXOF256(final byte[] key, final String customizationStr) {
+        final Sponge theSponge = new Sponge();
+        theSponge.update(Glossary.bytepad(mergeByteArrays(Glossary.encode_string("KMAC".getBytes()),
+                Glossary.encode_string(customizationStr.getBytes())), 136));
+        theSponge.update(Glossary.bytepad(Glossary.encode_string(key), 136));
+        return theSponge;
+    }
+
     /**
      * The sponge method, produces an output of length bitLength based on keccak-p over input.
      *
@@ -99,6 +116,8 @@ final class Keccak {
      * @return Returns a byte array of bitLength bits produced by the keccak-p permutation.
      */
     private static byte[] sponge(final byte[] input, final int bitLength, final int capacity) {
+        final CryptoMetrics.SpongeEvent event = new CryptoMetrics.SpongeEvent();
+        event.begin();
         final int rate = 1600 - capacity;
         final byte[] padded = input.length % (rate / 8) == 0 ? input : padTenOne(rate, input);
         final long[][] states = byteArrayToStates(padded, capacity);
@@ -118,6 +137,7 @@ final class Keccak {
             stcml = keccakp(stcml, 1600, 24);
         } while (out.length * 64 < bitLength);
 
+        CryptoMetrics.endSponge(event, padded.length, bitLength);
         return stateToByteArray(out, bitLength);
     }
 
@@ -152,6 +172,7 @@ final class Keccak {
     private static long[] keccakp(final long[] stateInput, final int bitLength, final int rounds) {
         long[] stateOut = stateInput;
         final int l = floorLog(bitLength / 25);
+        CryptoMetrics.KECCAK_PERMUTATIONS.increment();
 
         for (int i = 12 + 2 * l - rounds; i < 12 + 2 * l; i++) {
             stateOut = iota(chi(rhoPhi(theta(stateOut))), i);
@@ -341,6 +362,171 @@ final class Keccak {
         return w << ofs | (w >>> (Long.SIZE - ofs));
     }
 
+    /**
+     * An incremental Keccak[512] sponge for KMACXOF256, see {@link #newKMACXOF256(byte[], String)}.
+     * The padding is applied exactly as {@link #cSHAKE256(byte[], int, String, String)} and
+     * {@link #sponge(byte[], int, int)} apply it, so the output always matches the one-shot functions.
+     */
+    static final class Sponge {
+        private static final int RATE_BYTES = 136;
+        private final byte[] myBlock = new byte[RATE_BYTES];
+        private long[] myState = new long[25];
+        private int myBlockLength;
+        private boolean myFinished;
+        /**
+         * The number of bytes of the current output block already squeezed, or -1 before squeezing started
+         */
+        private int mySqueezed = -1;
+        /**
+         * The bytes absorbed so far, including those absorbed before this sponge was copied
+         */
+        private long myAbsorbed;
+        private final CryptoMetrics.SpongeEvent myEvent = new CryptoMetrics.SpongeEvent();
+
+        private Sponge() {
+            myEvent.begin();
+        }
+
+        /**
+         * Creates an independent sponge that has absorbed the same bytes as this one, so a common prefix
+         * such as the key only has to be absorbed once and can then be reused for many inputs.
+         *
+         * @return Returns a copy of this sponge.
+         */
+        Sponge copy() {
+            if (myFinished) throw new IllegalStateException("The sponge has already been squeezed.");
+            final Sponge theCopy = new Sponge();
+            System.arraycopy(myBlock, 0, theCopy.myBlock, 0, RATE_BYTES);
+            theCopy.myState = myState.clone();
+            theCopy.myBlockLength = myBlockLength;
+            theCopy.myAbsorbed = myAbsorbed;
+            return theCopy;
+        }
+
+        /**
+         * Overwrites everything the sponge has absorbed with zeros. The sponge cannot be used afterwards.
+         */
+        void clear() {
+            Arrays.fill(myBlock, (byte) 0);
+            Arrays.fill(myState, 0L);
+            myBlockLength = 0;
+            myFinished = true;
+        }
+
+        /**
+         * Absorbs the given bytes.
+         *
+         * @param input Parameter for the bytes to absorb.
+         */
+        void update(final byte[] input) {
+            update(input, 0, input.length);
+        }
+
+        /**
+         * Absorbs length bytes of input, starting at offset.
+         *
+         * @param input  Parameter for the bytes to absorb.
+         * @param offset Parameter for the position of the first byte to absorb.
+         * @param length Parameter for the number of bytes to absorb.
+         */
+        void update(final byte[] input, int offset, int length) {
+            if (myFinished) throw new IllegalStateException("The sponge has already been squeezed.");
+            while (length > 0) {
+                final int n = Math.min(length, RATE_BYTES - myBlockLength);
+                System.arraycopy(input, offset, myBlock, myBlockLength, n);
+                myBlockLength += n;
+                offset += n;
+                length -= n;
+                if (myBlockLength == RATE_BYTES) absorbBlock();
+            }
+        }
+
+        /**
+         * Absorbs all remaining bytes of the buffer, leaving its position at its limit.
+         *
+         * @param input Parameter for the buffer to absorb.
+         */
+        void update(final ByteBuffer input) {
+            if (myFinished) throw new IllegalStateException("The sponge has already been squeezed.");
+            while (input.hasRemaining()) {
+                final int n = Math.min(input.remaining(), RATE_BYTES - myBlockLength);
+                input.get(myBlock, myBlockLength, n);
+                myBlockLength += n;
+                if (myBlockLength == RATE_BYTES) absorbBlock();
+            }
+        }
+
+        /**
+         * Finishes absorbing and squeezes the output. The sponge cannot be used afterwards.
+         *
+         * @param bitLength Parameter for the desired bit length.
+         * @return Returns the output of KMACXOF256 over everything that has been absorbed.
+         */
+        byte[] digest(final int bitLength) {
+            finish(bitLength);
+            final long[] out = new long[(bitLength + 64 * (RATE_BYTES / 8) - 1) / (64 * (RATE_BYTES / 8)) * (RATE_BYTES / 8)];
+            for (int offset = 0; offset < out.length; offset += RATE_BYTES / 8) {
+                System.arraycopy(myState, 0, out, offset, RATE_BYTES / 8);
+                myState = keccakp(myState, 1600, 24);
+            }
+            return stateToByteArray(out, bitLength);
+        }
+
+        /**
+         * Finishes absorbing on the first call, then squeezes the next length bytes of output.
+         * Squeezing piece by piece gives the same bytes as a single digest of the total length,
+         * since the output of KMACXOF256 does not depend on the requested length.
+         *
+         * @param output Parameter for where the output bytes will be written.
+         * @param offset Parameter for the position of the first output byte.
+         * @param length Parameter for the number of bytes to squeeze.
+         */
+        void squeeze(final byte[] output, int offset, int length) {
+            if (mySqueezed < 0) {
+                // the total output length is not known up front
+                finish(0);
+                mySqueezed = 0;
+            }
+            while (length > 0) {
+                if (mySqueezed == RATE_BYTES) {
+                    myState = keccakp(myState, 1600, 24);
+                    mySqueezed = 0;
+                }
+                final int n = Math.min(length, RATE_BYTES - mySqueezed);
+                for (int i = 0; i < n; i++, mySqueezed++) {
+                    output[offset + i] = (byte) (myState[mySqueezed / 8] >>> (8 * (mySqueezed % 8)));
+                }
+                offset += n;
+                length -= n;
+            }
+        }
+
+        private void finish(final int bitLength) {
+            if (myFinished) throw new IllegalStateException("The sponge has already been squeezed.");
+            update(Glossary.right_encode(0));
+            update(new byte[]{0x04});
+            myFinished = true;
+            // a full block is left unpadded, just like sponge() does for an input of a multiple of the rate
+            if (myBlockLength > 0) {
+                Arrays.fill(myBlock, myBlockLength, RATE_BYTES, (byte) 0);
+                myBlock[RATE_BYTES - 1] |= (byte) 0x80;
+                absorbBlock();
+            }
+            CryptoMetrics.commitSponge(myEvent, myAbsorbed, bitLength);
+        }
+
+        private void absorbBlock() {
+            final long[] st = new long[25];
+            for (int j = 0; j < RATE_BYTES / 8; j++) {
+                st[j] = bytesToWord(8 * j, myBlock);
+            }
+            myState = keccakp(xorStates(myState, st), 1600, 24);
+            myBlockLength = 0;
+            myAbsorbed += RATE_BYTES;
+            CryptoMetrics.KECCAK_ABSORBED_BYTES.add(RATE_BYTES);
+        }
+    }
+
     private static byte[] mergeByteArrays(final byte[] byteOne, final byte[] byteTwo) {
         final byte[] mrg = Arrays.copyOf(byteOne, byteOne.length + byteTwo.length);
         System.arraycopy(byteTwo, 0, mrg, byteOne.length, byteTwo.length);
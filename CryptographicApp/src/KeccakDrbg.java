@@ -0,0 +1,105 @@
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * A deterministic random bit generator built on cSHAKE256, seeded from SecureRandom.
+ * Every request squeezes the output together with a new state from the current state and throws the old state away,
+ * so a state that leaks later cannot be used to recover output that was already handed out (forward secrecy).
+ * After a configurable amount of output the state is mixed with fresh entropy from SecureRandom again.
+ * A small fixed set of lock-guarded instances is shared by all threads, see {@link #generate(int)}, so short-lived
+ * (virtual) threads do not pay for seeding a generator of their own, and threads rarely contend for one.
+ *
+ * @author Yudong Lin
+ */
+final class KeccakDrbg {
+    private static final int STATE_LEN = 64;
+    private static final SecureRandom SEED_SOURCE = new SecureRandom();
+    /**
+     * The shared instances, a power of two with about two for every processor
+     */
+    private static final KeccakDrbg[] INSTANCES = new KeccakDrbg[Math.min(64, Integer.highestOneBit(4 * Runtime.getRuntime().availableProcessors() - 1))];
+
+    static {
+        for (int i = 0; i < INSTANCES.length; i++) {
+            INSTANCES[i] = new KeccakDrbg();
+        }
+    }
+
+    private static volatile long reseedInterval = 1L << 20;
+    private byte[] myState;
+    private long myOutputSinceSeed;
+
+    /**
+     * Create a new generator seeded from SecureRandom
+     */
+    private KeccakDrbg() {
+        this.myState = Keccak.cSHAKE256(seed(), STATE_LEN * 8, "", "DRBG");
+    }
+
+    /**
+     * Generate random bytes with one of the shared generators, picked at random so that concurrent callers spread
+     * over all of them
+     *
+     * @param length the number of bytes
+     * @return the random bytes
+     */
+    static byte[] generate(final int length) {
+        return INSTANCES[ThreadLocalRandom.current().nextInt(INSTANCES.length)].nextBytes(length);
+    }
+
+    /**
+     * Set after how many bytes of output every generator mixes fresh entropy into its state
+     *
+     * @param bytes the number of bytes, has to be positive
+     */
+    static void setReseedInterval(final long bytes) {
+        if (bytes <= 0) {
+            throw new IllegalArgumentException("The reseed interval has to be positive!");
+        }
+        reseedInterval = bytes;
+    }
+
+    /**
+     * Draw fresh entropy from SecureRandom
+     *
+     * @return STATE_LEN random bytes
+     */
+    private static byte[] seed() {
+        final byte[] entropy = new byte[STATE_LEN];
+        SEED_SOURCE.nextBytes(entropy);
+        return entropy;
+    }
+
+    /**
+     * Generate random bytes
+     *
+     * @param length the number of bytes
+     * @return the random bytes
+     */
+    private synchronized byte[] nextBytes(final int length) {
+        if (myOutputSinceSeed >= reseedInterval) {
+            final byte[] entropy = seed();
+            ratchet(Keccak.cSHAKE256(Glossary.array_concatenation(myState, entropy), STATE_LEN * 8, "", "DRBG-RESEED"));
+            Arrays.fill(entropy, (byte) 0);
+            myOutputSinceSeed = 0;
+        }
+        // the first STATE_LEN bytes become the next state, the rest is the output
+        final byte[] z = Keccak.cSHAKE256(myState, (STATE_LEN + length) * 8, "", "DRBG");
+        ratchet(Arrays.copyOfRange(z, 0, STATE_LEN));
+        final byte[] result = Arrays.copyOfRange(z, STATE_LEN, z.length);
+        Arrays.fill(z, (byte) 0);
+        myOutputSinceSeed += length;
+        return result;
+    }
+
+    /**
+     * Replace the state and overwrite the old one with zeros
+     *
+     * @param theNewState the new state
+     */
+    private void ratchet(final byte[] theNewState) {
+        Arrays.fill(myState, (byte) 0);
+        myState = theNewState;
+    }
+}
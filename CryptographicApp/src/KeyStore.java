@@ -0,0 +1,437 @@
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.function.BiConsumer;
+
+/**
+ * A local store of many public keys, looked up by their fingerprint, see {@link EllipticCurves#getFingerprint(byte[])}.
+ * <p>
+ * The keys file holds one record per key, appended in the order the keys were added: the fingerprint,
+ * the length of the key as 2 bytes and the key in the compressed encoding. Next to it, the index file
+ * (the keys file with ".index" appended) is a hash table with open addressing and linear probing whose slots
+ * hold a fingerprint and the position of its record. The index is memory-mapped, so a lookup only touches the pages
+ * of the few slots it probes and reads the one record it finds, whatever the size of the store.
+ * <p>
+ * Adding keys is serialized between processes with a lock on the keys file. Records are written and flushed before
+ * the slots that point to them, and the index header records how much of the keys file is indexed, so whatever
+ * an add that did not finish left behind is cut off by the next add. If the index is missing or damaged,
+ * it is rebuilt by scanning the keys file, which holds every fingerprint.
+ *
+ * @author Yudong Lin
+ */
+final class KeyStore implements Closeable {
+    private static final int INDEX_MAGIC = 0x4b455953; // "KEYS"
+    private static final int INDEX_VERSION = 2;
+    /**
+     * The header: magic, version, capacity, number of used slots and the length of the indexed part of the keys file
+     */
+    private static final int HEADER_SIZE = 24;
+    private static final int COUNT_OFFSET = 12;
+    private static final int INDEXED_LENGTH_OFFSET = 16;
+    private static final int INITIAL_CAPACITY = 1024;
+    private static final int FINGERPRINT_LEN = EllipticCurves.FINGERPRINT_LEN;
+    /**
+     * A slot: fingerprint, position of the record, length of the key and used flag
+     */
+    private static final int SLOT_SIZE = FINGERPRINT_LEN + 8 + 4 + 4;
+    private static final int POSITION_OFFSET = FINGERPRINT_LEN;
+    private static final int LENGTH_OFFSET = FINGERPRINT_LEN + 8;
+    private static final int USED_OFFSET = FINGERPRINT_LEN + 12;
+    private static final int RECORD_HEADER_SIZE = FINGERPRINT_LEN + 2;
+
+    private final Path myFile;
+    private final FileChannel myKeys;
+    private final boolean myWritable;
+    private MappedByteBuffer myIndex;
+    private int myCapacity;
+
+    private KeyStore(final Path theFile, final FileChannel theKeys, final boolean theWritable) {
+        this.myFile = theFile;
+        this.myKeys = theKeys;
+        this.myWritable = theWritable;
+    }
+
+    /**
+     * Open a key store
+     *
+     * @param file     the keys file, the index is kept next to it
+     * @param writable whether keys will be added, which creates the store if it does not exist yet
+     * @return the key store, which has to be closed
+     * @throws IOException the store does not exist or cannot be read
+     */
+    static KeyStore open(final Path file, final boolean writable) throws IOException {
+        if (!writable && !Files.exists(file)) {
+            throw new IOException("The key store " + file + " does not exist, add a key with -keys add first");
+        }
+        final FileChannel keys = writable
+                ? FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)
+                : FileChannel.open(file, StandardOpenOption.READ);
+        final KeyStore theStore = new KeyStore(file, keys, writable);
+        try {
+            if (writable) {
+                final FileLock lock = keys.lock();
+                try {
+                    if (!theStore.tryMap()) {
+                        theStore.reindex();
+                    }
+                } finally {
+                    lock.release();
+                }
+            } else if (!theStore.tryMap()) {
+                try {
+                    open(file, true).close();
+                } catch (final IOException e) {
+                    throw new IOException("The index of the key store " + file + " is missing or damaged and cannot be rebuilt: " + e.getMessage(), e);
+                }
+            }
+            theStore.map();
+        } catch (final IOException | RuntimeException e) {
+            keys.close();
+            throw e;
+        }
+        return theStore;
+    }
+
+    /**
+     * Add a public key, unless it is in the store already
+     *
+     * @param V the encoded public key, in either encoding
+     * @return the fingerprint of the key
+     * @throws IOException fail to write the store
+     */
+    byte[] add(final byte[] V) throws IOException {
+        return add(List.of(V)).get(0);
+    }
+
+    /**
+     * Add many public keys at once, skipping those that are in the store already,
+     * with a single lock and a single flush to disk
+     *
+     * @param publicKeys the encoded public keys, in either encoding
+     * @return the fingerprint of every key, in the same order
+     * @throws IOException fail to write the store
+     */
+    synchronized List<byte[]> add(final List<byte[]> publicKeys) throws IOException {
+        if (!myWritable) {
+            throw new IllegalStateException("The key store has been opened for reading only!");
+        }
+        final List<byte[]> fingerprints = new ArrayList<>(publicKeys.size());
+        final FileLock lock = myKeys.lock();
+        try {
+            // another process may have grown the index in the meantime
+            map();
+            final long indexedLength = myIndex.getLong(INDEXED_LENGTH_OFFSET);
+            if (myKeys.size() > indexedLength) {
+                // left behind by an add that did not finish, nothing points to it
+                myKeys.truncate(indexedLength);
+            }
+            long position = indexedLength;
+            final List<Slot> added = new ArrayList<>();
+            final Set<ByteBuffer> addedFingerprints = new HashSet<>();
+            for (final byte[] V : publicKeys) {
+                final byte[] key = EllipticCurves.encodePoint(EllipticCurves.decodePoint(V));
+                final byte[] fingerprint = EllipticCurves.getFingerprint(key);
+                fingerprints.add(fingerprint);
+                if (find(fingerprint) >= 0 || !addedFingerprints.add(ByteBuffer.wrap(fingerprint))) {
+                    continue;
+                }
+                final ByteBuffer record = ByteBuffer.allocate(RECORD_HEADER_SIZE + key.length);
+                record.put(fingerprint).putShort((short) key.length).put(key).flip();
+                while (record.hasRemaining()) {
+                    myKeys.write(record, position + record.position());
+                }
+                added.add(new Slot(fingerprint, position, key.length));
+                position += record.capacity();
+            }
+            if (!added.isEmpty()) {
+                myKeys.force(false);
+                final int count = myIndex.getInt(COUNT_OFFSET) + added.size();
+                if (4 * count > 3 * myCapacity) {
+                    rebuildIndex(capacityFor(count));
+                    map();
+                }
+                for (final Slot slot : added) {
+                    insert(myIndex, myCapacity, slot);
+                }
+                myIndex.putLong(INDEXED_LENGTH_OFFSET, position);
+                myIndex.force();
+            }
+        } finally {
+            lock.release();
+        }
+        return fingerprints;
+    }
+
+    /**
+     * Look up a public key
+     *
+     * @param fingerprint the fingerprint of the key
+     * @return the encoded public key, or null if it is not in the store
+     * @throws IOException fail to read the store, or the store is damaged
+     */
+    synchronized byte[] get(final byte[] fingerprint) throws IOException {
+        if (fingerprint.length != FINGERPRINT_LEN) {
+            throw new IllegalArgumentException("A fingerprint has " + FINGERPRINT_LEN + " bytes!");
+        }
+        final int slot = find(fingerprint);
+        if (slot < 0) {
+            return null;
+        }
+        final long position = myIndex.getLong(slotOffset(slot) + POSITION_OFFSET);
+        final int length = myIndex.getInt(slotOffset(slot) + LENGTH_OFFSET);
+        final ByteBuffer record = ByteBuffer.allocate(RECORD_HEADER_SIZE + length);
+        while (record.hasRemaining()) {
+            if (myKeys.read(record, position + record.position()) < 0) {
+                throw new IOException("The key store is damaged, a key is missing");
+            }
+        }
+        if (!Arrays.equals(record.array(), 0, FINGERPRINT_LEN, fingerprint, 0, FINGERPRINT_LEN)
+                || (record.getShort(FINGERPRINT_LEN) & 0xffff) != length) {
+            throw new IOException("The key store is damaged, the index does not match the keys");
+        }
+        return Arrays.copyOfRange(record.array(), RECORD_HEADER_SIZE, record.capacity());
+    }
+
+    /**
+     * Get the number of keys in the store
+     *
+     * @return the number of keys
+     */
+    synchronized int size() {
+        return myIndex.getInt(COUNT_OFFSET);
+    }
+
+    /**
+     * Read every key in the order they were added, streaming through the keys file
+     *
+     * @param action called with the fingerprint and the encoded public key of every key
+     * @throws IOException fail to read the store
+     */
+    synchronized void forEach(final BiConsumer<byte[], byte[]> action) throws IOException {
+        readRecords(myIndex.getLong(INDEXED_LENGTH_OFFSET), (fingerprint, position, key) -> action.accept(fingerprint, key));
+    }
+
+    /**
+     * Read the records of the keys file one after another, up to the given length or a record that is cut off
+     *
+     * @param length the length of the keys file to read
+     * @param action called with the fingerprint, the position of the record and the encoded public key of every record
+     * @return the end of the last complete record
+     */
+    private long readRecords(final long length, final RecordAction action) throws IOException {
+        final DataInputStream in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(myKeys.position(0)), Armor.BLOCK_SIZE));
+        long position = 0;
+        while (position + RECORD_HEADER_SIZE <= length) {
+            final byte[] fingerprint = new byte[FINGERPRINT_LEN];
+            final byte[] key;
+            try {
+                in.readFully(fingerprint);
+                key = new byte[in.readUnsignedShort()];
+                if (position + RECORD_HEADER_SIZE + key.length > length) {
+                    break;
+                }
+                in.readFully(key);
+            } catch (final EOFException e) {
+                // an add that did not finish
+                break;
+            }
+            action.accept(fingerprint, position, key);
+            position += RECORD_HEADER_SIZE + key.length;
+        }
+        return position;
+    }
+
+    /**
+     * Build a new index from the records of the keys file, and cut off a record that was only partly written.
+     * Must be called with the lock on the keys file held.
+     */
+    private void reindex() throws IOException {
+        final List<Slot> slots = new ArrayList<>();
+        final Set<ByteBuffer> fingerprints = new HashSet<>();
+        final long length = readRecords(Long.MAX_VALUE, (fingerprint, position, key) -> {
+            if (fingerprints.add(ByteBuffer.wrap(fingerprint))) {
+                slots.add(new Slot(fingerprint, position, key.length));
+            }
+        });
+        myKeys.truncate(length);
+        writeIndex(capacityFor(slots.size()), slots, length);
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        myIndex = null;
+        myKeys.close();
+    }
+
+    private Path getIndexPath() {
+        return myFile.resolveSibling(myFile.getFileName() + ".index");
+    }
+
+    /**
+     * Find the slot of a fingerprint
+     *
+     * @return the slot, or -(empty slot) - 1 where it would be inserted
+     */
+    private int find(final byte[] fingerprint) {
+        return find(myIndex, myCapacity, fingerprint);
+    }
+
+    private static int find(final MappedByteBuffer index, final int capacity, final byte[] fingerprint) {
+        // the fingerprint is a hash already
+        int slot = (int) (ByteBuffer.wrap(fingerprint).getLong() & (capacity - 1));
+        final byte[] candidate = new byte[FINGERPRINT_LEN];
+        while (index.getInt(slotOffset(slot) + USED_OFFSET) != 0) {
+            index.get(slotOffset(slot), candidate);
+            if (Arrays.equals(candidate, fingerprint)) {
+                return slot;
+            }
+            slot = (slot + 1) & (capacity - 1);
+        }
+        return -slot - 1;
+    }
+
+    private static void insert(final MappedByteBuffer index, final int capacity, final Slot slot) {
+        final int offset = slotOffset(-find(index, capacity, slot.myFingerprint) - 1);
+        index.put(offset, slot.myFingerprint);
+        index.putLong(offset + POSITION_OFFSET, slot.myPosition);
+        index.putInt(offset + LENGTH_OFFSET, slot.myLength);
+        // the used flag last, so that the slot is complete once it can be found
+        index.putInt(offset + USED_OFFSET, 1);
+        index.putInt(COUNT_OFFSET, index.getInt(COUNT_OFFSET) + 1);
+    }
+
+    /**
+     * The smallest capacity that holds the given number of slots without growing
+     */
+    private static int capacityFor(final int count) {
+        int capacity = INITIAL_CAPACITY;
+        while (4 * (count + 1) > 3 * capacity) {
+            capacity *= 2;
+        }
+        return capacity;
+    }
+
+    /**
+     * Write a new index with the given capacity holding every slot of the current one.
+     * Must be called with the lock on the keys file held.
+     *
+     * @param capacity the number of slots, a power of two
+     */
+    private void rebuildIndex(final int capacity) throws IOException {
+        final List<Slot> slots = new ArrayList<>(myIndex.getInt(COUNT_OFFSET));
+        for (int slot = 0; slot < myCapacity; slot++) {
+            final int offset = slotOffset(slot);
+            if (myIndex.getInt(offset + USED_OFFSET) != 0) {
+                final byte[] fingerprint = new byte[FINGERPRINT_LEN];
+                myIndex.get(offset, fingerprint);
+                slots.add(new Slot(fingerprint, myIndex.getLong(offset + POSITION_OFFSET), myIndex.getInt(offset + LENGTH_OFFSET)));
+            }
+        }
+        writeIndex(capacity, slots, myIndex.getLong(INDEXED_LENGTH_OFFSET));
+    }
+
+    /**
+     * Write an index to a temporary file, then move it into place
+     *
+     * @param capacity      the number of slots, a power of two
+     * @param slots         the slots of the index
+     * @param indexedLength the length of the keys file the slots cover
+     */
+    private void writeIndex(final int capacity, final List<Slot> slots, final long indexedLength) throws IOException {
+        final Path temporary = getIndexPath().resolveSibling(getIndexPath().getFileName() + ".tmp");
+        try (final FileChannel theChannel = FileChannel.open(temporary, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            final MappedByteBuffer theIndex = theChannel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE + (long) capacity * SLOT_SIZE);
+            theIndex.putInt(0, INDEX_MAGIC);
+            theIndex.putInt(4, INDEX_VERSION);
+            theIndex.putInt(8, capacity);
+            theIndex.putInt(COUNT_OFFSET, 0);
+            theIndex.putLong(INDEXED_LENGTH_OFFSET, indexedLength);
+            for (final Slot slot : slots) {
+                insert(theIndex, capacity, slot);
+            }
+            theIndex.force();
+        }
+        Files.move(temporary, getIndexPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Map the index file, unless it is missing or damaged
+     *
+     * @return whether the index could be mapped
+     */
+    private boolean tryMap() {
+        try {
+            map();
+            return true;
+        } catch (final IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Map the index file and check its header
+     */
+    private void map() throws IOException {
+        try (final FileChannel theChannel = myWritable
+                ? FileChannel.open(getIndexPath(), StandardOpenOption.READ, StandardOpenOption.WRITE)
+                : FileChannel.open(getIndexPath(), StandardOpenOption.READ)) {
+            if (theChannel.size() < HEADER_SIZE) {
+                throw new IOException("The key store index is damaged");
+            }
+            final MappedByteBuffer theIndex = theChannel.map(myWritable ? FileChannel.MapMode.READ_WRITE : FileChannel.MapMode.READ_ONLY, 0, theChannel.size());
+            if (theIndex.getInt(0) != INDEX_MAGIC || theIndex.getInt(4) != INDEX_VERSION) {
+                throw new IOException("The key store index is damaged or of an unknown version");
+            }
+            final int capacity = theIndex.getInt(8);
+            if (Integer.bitCount(capacity) != 1 || theChannel.size() != HEADER_SIZE + (long) capacity * SLOT_SIZE) {
+                throw new IOException("The key store index is damaged");
+            }
+            this.myIndex = theIndex;
+            this.myCapacity = capacity;
+        }
+    }
+
+    private static int slotOffset(final int slot) {
+        return HEADER_SIZE + slot * SLOT_SIZE;
+    }
+
+    /**
+     * Called for every record of the keys file.
+     */
+    @FunctionalInterface
+    private interface RecordAction {
+        void accept(byte[] fingerprint, long position, byte[] key);
+    }
+
+    /**
+     * The fingerprint of a key and where its record is.
+     */
+    private static final class Slot {
+        private final byte[] myFingerprint;
+        private final long myPosition;
+        private final int myLength;
+
+        private Slot(final byte[] theFingerprint, final long thePosition, final int theLength) {
+            this.myFingerprint = theFingerprint;
+            this.myPosition = thePosition;
+            this.myLength = theLength;
+        }
+    }
+}
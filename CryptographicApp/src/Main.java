@@ -1,8 +1,22 @@
+import java.io.ByteArrayInputStream;
+import java.io.BufferedOutputStream;
+import java.io.FileDescriptor;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HexFormat;
 import java.util.List;
 import java.util.Objects;
 import java.util.Scanner;
@@ -14,38 +28,167 @@ import java.util.Scanner;
  * @author Yudong Lin
  */
 final class Main {
+    /**
+     * Where the operations of the current thread print their results, which is the console unless a daemon
+     * request is being served
+     */
+    private static final ThreadLocal<PrintStream> OUT = ThreadLocal.withInitial(() -> System.out);
+    /**
+     * Whether the operations of the current thread may prompt the user for missing input
+     */
+    private static final ThreadLocal<Boolean> INTERACTIVE = ThreadLocal.withInitial(() -> true);
+    /**
+     * How the operations of the current thread print their results, see {@link Display}
+     */
+    private static final ThreadLocal<Display> DISPLAY = ThreadLocal.withInitial(() -> Display.DUMP);
+    /**
+     * How cryptograms, signatures and keys are written to and read from files (--armor)
+     */
+    private static final ThreadLocal<Armor.Encoding> ARMOR = ThreadLocal.withInitial(() -> Armor.Encoding.BINARY);
+    /**
+     * What the default key store and the relative paths in a manifest are resolved against, which is the working
+     * directory of the client while a daemon request is being served
+     */
+    private static final ThreadLocal<Path> WORKING_DIRECTORY = ThreadLocal.withInitial(() -> Path.of(""));
+    /**
+     * The operations that stream their data in constant memory when reading standard input or writing standard output
+     */
+    private static final List<String> STREAMING_MODES = List.of("-h", "-t", "-e", "-d");
+
+    /**
+     * How results are printed to the console
+     */
+    private enum Display {
+        /**
+         * a titled hex dump of every result, the default
+         */
+        DUMP,
+        /**
+         * nothing but errors and verification results (--quiet)
+         */
+        QUIET,
+        /**
+         * every result on its own line, in hex or in the encoding given with --armor, without any title (--raw)
+         */
+        RAW
+    }
 
     public static void main(final String[] args) throws IOException, ClassNotFoundException {
+        if (args.length >= 2 && args[0].equals("-serve")) {
+            final int cacheIndex = Arrays.asList(args).indexOf("-verifycache");
+            if (cacheIndex < 0) {
+                CryptoDaemon.serve(Path.of(args[1]), 0, 0);
+            } else {
+                final String[] cache = args[cacheIndex + 1].split(",");
+                if (cache.length != 2) {
+                    throw new IllegalArgumentException("Usage: -verifycache <entries>,<seconds>");
+                }
+                CryptoDaemon.serve(Path.of(args[1]), Integer.parseInt(cache[0]), 1000 * Long.parseLong(cache[1]));
+            }
+        } else if (args.length >= 2 && args[0].equals("-client")) {
+            System.exit(CryptoDaemon.forward(Path.of(args[1]), Arrays.copyOfRange(args, 2, args.length)));
+        } else {
+            // a large buffer, so that dumping big results does not end up in many small writes to the console
+            final PrintStream console = new PrintStream(new BufferedOutputStream(new FileOutputStream(FileDescriptor.out), Armor.BLOCK_SIZE), false);
+            System.setOut(console);
+            try {
+                run(args);
+            } finally {
+                console.flush();
+            }
+        }
+    }
+
+    /**
+     * Run one operation on behalf of a daemon client, printing to the given stream instead of the console.
+     * Prompting for missing input is not possible here, so every input has to be given as an argument.
+     *
+     * @param args             the input arguments
+     * @param out              where the results will be printed
+     * @param workingDirectory the working directory of the client
+     * @throws IOException            something went wrong
+     * @throws ClassNotFoundException something went wrong
+     */
+    static void run(final String[] args, final PrintStream out, final Path workingDirectory) throws IOException, ClassNotFoundException {
+        if (readsStandardInput(Arrays.asList(args)) || Arrays.asList(args).contains("--stdout")) {
+            throw new IllegalArgumentException("The daemon cannot use standard input or output, use -f and -o instead");
+        }
+        OUT.set(out);
+        INTERACTIVE.set(false);
+        WORKING_DIRECTORY.set(workingDirectory);
+        try {
+            run(args);
+        } finally {
+            OUT.remove();
+            INTERACTIVE.remove();
+            DISPLAY.remove();
+            ARMOR.remove();
+            WORKING_DIRECTORY.remove();
+        }
+    }
+
+    /**
+     * Run the operation selected by the input arguments
+     *
+     * @param args the input arguments
+     * @throws IOException            something went wrong
+     * @throws ClassNotFoundException something went wrong
+     */
+    private static void run(final String[] args) throws IOException, ClassNotFoundException {
         if (args.length < 1) {
-            System.out.println("Invalid argument format detected, abort.");
+            out().println("Invalid argument format detected, abort.");
         } else if (args[0].equals("-test")) {
             // debugging use only
             Glossary.test();
         } else {
             /* getting the input arguments */
             final List<String> argsL = Arrays.asList(args);
-            if (argsL.get(0).startsWith("-ec")) {
+            final int armorIndex = argsL.indexOf("--armor");
+            DISPLAY.set(argsL.contains("--quiet") ? Display.QUIET : argsL.contains("--raw") ? Display.RAW : Display.DUMP);
+            ARMOR.set(armorIndex < 0 ? Armor.Encoding.BINARY : Armor.Encoding.of(argsL.get(armorIndex + 1)));
+            if (readsStandardInput(argsL)) {
+                // standard input carries the data, so it cannot be used to prompt for anything else
+                INTERACTIVE.set(false);
+            }
+            if (STREAMING_MODES.contains(args[0]) && (readsStandardInput(argsL) || argsL.contains("--stdout"))) {
+                runStreaming(args[0], argsL);
+            } else if (argsL.contains("--stdout")) {
+                throw new IllegalArgumentException("--stdout is only supported by " + String.join(", ", STREAMING_MODES));
+            } else if (argsL.get(0).startsWith("-ec")) {
                 switch (args[0]) {
                     case "-eck" ->
                             getEllipticKeyPair(getPassphrase(argsL), getOutputPath(argsL), getSecondaryOutputPath(argsL));
                     case "-ece" ->
                             encryptDataUsingPublicKey(getInputData(argsL), readPublicKeyFile(argsL), getOutputPath(argsL));
                     case "-ecd" ->
-                            decryptDataUsingPublicKey(getInputData(argsL, false), getPassphrase(argsL), getOutputPath(argsL));
+                            decryptDataUsingPublicKey(getArmoredInputData(argsL, false), getPassphrase(argsL), getOutputPath(argsL));
                     case "-ecs" -> generateSignature(getInputData(argsL), getPassphrase(argsL), getOutputPath(argsL));
                     case "-ecv" ->
-                            verifySignature(getInputData(argsL, false), Files.readAllBytes(Objects.requireNonNull(getOutputPath(argsL))), readPublicKeyFile(argsL));
+                            verifySignature(getInputData(argsL, false), readKeyFile(Objects.requireNonNull(getOutputPath(argsL))), readPublicKeyFile(argsL));
+                    case "-ecm" ->
+                            encryptDataForRecipients(getInputData(argsL), readPublicKeyFiles(argsL), getOutputPath(argsL));
+                    case "-ecmd" ->
+                            decryptDataForRecipient(getArmoredInputData(argsL, false), getPassphrase(argsL), getOutputPath(argsL));
+                    case "-ecsp" -> generatePreHashedSignature(getInputPath(argsL), getPassphrase(argsL), getOutputPath(argsL));
+                    case "-ecvp" ->
+                            verifyPreHashedSignature(getInputPath(argsL), readKeyFile(Objects.requireNonNull(getOutputPath(argsL))), readPublicKeyFile(argsL));
                     default -> throw new IllegalArgumentException("Invalid argument, abort.");
                 }
             } else {
                 /* doing whatever the user is asking for */
                 if (args[0].equals("-h")) {
                     computeHash(getInputData(argsL));
+                } else if (args[0].equals("-hm")) {
+                    computeMerkleHash(getInputPath(argsL), argsL);
                 } else {
                     switch (args[0]) {
                         case "-t" -> computeTag(getInputData(argsL), getPassphrase(argsL));
-                        case "-e" -> encryptData(getInputData(argsL), getPassphrase(argsL), getOutputPath(argsL));
-                        case "-d" -> decryptData(getInputData(argsL), getPassphrase(argsL), getOutputPath(argsL));
+                        case "-e" -> encryptData(getInputData(argsL), getPassphrase(argsL), getOutputPath(argsL), argsL.contains("--compress"));
+                        case "-d" -> decryptData(getArmoredInputData(argsL, true), getPassphrase(argsL), getOutputPath(argsL));
+                        case "-batch" -> runBatch(argsL);
+                        case "-bench" -> runBenchmark(argsL);
+                        case "-blob" -> runBlobStore(argsL);
+                        case "-keys" -> runKeyStore(argsL);
                         default -> throw new IllegalArgumentException("Invalid argument, abort.");
                     }
                 }
@@ -53,6 +196,15 @@ final class Main {
         }
     }
 
+    /**
+     * get where the operations of the current thread print their results
+     *
+     * @return the output stream
+     */
+    private static PrintStream out() {
+        return OUT.get();
+    }
+
     /**
      * ask user to input sth
      *
@@ -60,7 +212,11 @@ final class Main {
      * @return the user input in bytes
      */
     private static byte[] input(final String message) {
-        System.out.print(message);
+        if (!INTERACTIVE.get()) {
+            throw new IllegalArgumentException("Missing argument, cannot prompt for: " + message.trim());
+        }
+        out().print(message);
+        out().flush();
         final Scanner _SCANNER = new Scanner(System.in);
         final String strIn = _SCANNER.nextLine();
         return strIn.getBytes();
@@ -88,17 +244,124 @@ final class Main {
     private static byte[] getInputData(final List<String> args, final boolean allowManualInput) throws IOException {
         // try load data from given path if a path is given
         final int data_index = args.indexOf("-f");
-        if (data_index > 0) {
+        if (readsStandardInput(args)) {
+            return System.in.readAllBytes();
+        } else if (data_index > 0) {
             return Files.readAllBytes(Paths.get(args.get(data_index + 1)));
         } else if (allowManualInput) {
             final byte[] data = input("Please enter a string: ");
-            System.out.println("string S: " + new String(data));
+            out().println("string S: " + new String(data));
             return data;
         } else {
             throw new IOException("You have to specify an input file path using '-f <input file path>'");
         }
     }
 
+    /**
+     * obtain input data that is a cryptogram, decoding it from the encoding given with --armor when read from a file
+     *
+     * @param args             the input arguments
+     * @param allowManualInput whether it is ok to prompt user to manually input string text as input
+     * @return the content in the form of byte array
+     * @throws IOException fail to obtain or to decode input data
+     */
+    private static byte[] getArmoredInputData(final List<String> args, final boolean allowManualInput) throws IOException {
+        final int data_index = args.indexOf("-f");
+        if (readsStandardInput(args)) {
+            return Armor.decoding(System.in, ARMOR.get()).readAllBytes();
+        }
+        return data_index > 0 ? readArmoredFile(Paths.get(args.get(data_index + 1))) : getInputData(args, allowManualInput);
+    }
+
+    /**
+     * read a file holding a cryptogram, decoding it from the encoding given with --armor
+     *
+     * @param file the file
+     * @return the decoded content
+     * @throws IOException fail to read or to decode the file
+     */
+    private static byte[] readArmoredFile(final Path file) throws IOException {
+        try (final InputStream in = Armor.decoding(Files.newInputStream(file), ARMOR.get())) {
+            return in.readAllBytes();
+        }
+    }
+
+    /**
+     * read a file holding a key or a signature, decoding it from the encoding it was written in, whatever
+     * --armor says, since such files are often written by a different command than the one reading them
+     *
+     * @param file the file
+     * @return the decoded content
+     * @throws IOException fail to read or to decode the file
+     */
+    private static byte[] readKeyFile(final Path file) throws IOException {
+        final byte[] content = Files.readAllBytes(file);
+        try (final InputStream in = Armor.decoding(new ByteArrayInputStream(content), Armor.detect(content))) {
+            return in.readAllBytes();
+        }
+    }
+
+    /**
+     * whether the input data is read from standard input, given with - right after the mode, -f - or --stdin.
+     * A - anywhere else is the value of another argument, such as a passphrase.
+     *
+     * @param args the input arguments
+     * @return true if the input data is read from standard input
+     */
+    private static boolean readsStandardInput(final List<String> args) {
+        final int data_index = args.indexOf("-f");
+        return (args.size() > 1 && args.get(1).equals("-")) || (data_index >= 0 && data_index + 1 < args.size()
+                && args.get(data_index + 1).equals("-")) || args.contains("--stdin");
+    }
+
+    /**
+     * open the input data as a channel, either standard input or the file given with -f
+     *
+     * @param args     the input arguments
+     * @param encoding the encoding the input data is decoded from
+     * @return the channel of the input data
+     * @throws IOException fail to open the file
+     */
+    private static ReadableByteChannel openInputChannel(final List<String> args, final Armor.Encoding encoding) throws IOException {
+        final InputStream in = readsStandardInput(args) ? new FileInputStream(FileDescriptor.in) : Files.newInputStream(getInputPath(args));
+        return Channels.newChannel(Armor.decoding(in, encoding));
+    }
+
+    /**
+     * open the output as a channel, either standard output (--stdout) or the file given with -o
+     *
+     * @param args     the input arguments
+     * @param encoding the encoding the output is written in
+     * @return the channel of the output
+     * @throws IOException fail to create the file
+     */
+    private static WritableByteChannel openOutputChannel(final List<String> args, final Armor.Encoding encoding) throws IOException {
+        final OutputStream out;
+        if (args.contains("--stdout")) {
+            out = new FileOutputStream(FileDescriptor.out);
+        } else if (getOutputPath(args) != null) {
+            out = Files.newOutputStream(getOutputPath(args));
+        } else {
+            throw new IllegalArgumentException("You have to specify where to write the output using '-o <output file path>' or '--stdout'");
+        }
+        return Channels.newChannel(Armor.encoding(out, encoding));
+    }
+
+    /**
+     * get the input file path, for operations that stream the file instead of reading it into memory
+     *
+     * @param args the input arguments
+     * @return the input file path
+     * @throws IOException no input file path is given
+     */
+    private static Path getInputPath(final List<String> args) throws IOException {
+        final int data_index = args.indexOf("-f");
+        if (data_index < 0) {
+            throw new IOException("You have to specify an input file path using '-f <input file path>'");
+        }
+        return Paths.get(args.get(data_index + 1));
+    }
+
     /**
      * get the passphrase
      *
@@ -133,32 +396,311 @@ final class Main {
     }
 
     /**
-     * read public key from given file
+     * read public key from given file (-keyp), or from the key store by its fingerprint (-key)
      *
      * @param args the input arguments
      * @return the public key in byte array
      */
     private static byte[] readPublicKeyFile(final List<String> args) {
+        final int keyIndex = args.indexOf("-key");
         final int _index = args.indexOf("-keyp");
+        if (keyIndex >= 0 && (_index < 0 || keyIndex < _index)) {
+            return readPublicKey(args, List.of(args.get(keyIndex + 1))).get(0);
+        }
         if (_index < 0) {
-            throw new IllegalArgumentException("Missing argument -keyp!");
+            throw new IllegalArgumentException("Missing argument -keyp or -key!");
         }
         try {
-            return Files.readAllBytes(Path.of(args.get(_index + 1)));
+            return readKeyFile(Path.of(args.get(_index + 1)));
+        } catch (final IOException e) {
+            throw new IllegalArgumentException("Unable to read public key due to following error:\n" + e.getMessage());
+        }
+    }
+
+    /**
+     * read every public key given with -keyp or -key
+     *
+     * @param args the input arguments
+     * @return the public keys in byte array
+     */
+    private static List<byte[]> readPublicKeyFiles(final List<String> args) {
+        final List<byte[]> publicKeys = new ArrayList<>();
+        final List<String> fingerprints = new ArrayList<>();
+        for (int i = 0; i < args.size() - 1; i++) {
+            if (args.get(i).equals("-keyp")) {
+                publicKeys.add(readPublicKeyFile(args.subList(i, args.size())));
+            } else if (args.get(i).equals("-key")) {
+                fingerprints.add(args.get(i + 1));
+            }
+        }
+        if (!fingerprints.isEmpty()) {
+            publicKeys.addAll(readPublicKey(args, fingerprints));
+        }
+        if (publicKeys.isEmpty()) {
+            throw new IllegalArgumentException("Missing argument -keyp or -key!");
+        }
+        return publicKeys;
+    }
+
+    /**
+     * look up public keys in the key store given with -keystore, or the default one
+     *
+     * @param args         the input arguments
+     * @param fingerprints the fingerprints of the keys in hex
+     * @return the public keys in byte array, in the same order
+     */
+    private static List<byte[]> readPublicKey(final List<String> args, final List<String> fingerprints) {
+        try (final KeyStore store = KeyStore.open(getKeyStorePath(args), false)) {
+            final List<byte[]> publicKeys = new ArrayList<>(fingerprints.size());
+            for (final String fingerprint : fingerprints) {
+                final byte[] publicKey = store.get(HexFormat.of().parseHex(fingerprint));
+                if (publicKey == null) {
+                    throw new IllegalArgumentException("No public key with the fingerprint " + fingerprint + " in the key store!");
+                }
+                publicKeys.add(publicKey);
+            }
+            return publicKeys;
         } catch (final IOException e) {
             throw new IllegalArgumentException("Unable to read public key due to following error:\n" + e.getMessage());
         }
     }
 
+    /**
+     * get the key store path
+     *
+     * @param args the input arguments
+     * @return the path given with -keystore, or keys.store in the working directory
+     */
+    private static Path getKeyStorePath(final List<String> args) {
+        final int _index = args.indexOf("-keystore");
+        return _index < 0 ? WORKING_DIRECTORY.get().resolve("keys.store") : Path.of(args.get(_index + 1));
+    }
+
+    /**
+     * Add the public keys given with -keyp to the key store, or list the keys in it
+     *
+     * @param args the input arguments
+     * @throws IOException fail to read or to write the key store
+     */
+    private static void runKeyStore(final List<String> args) throws IOException {
+        if (args.size() < 2) {
+            throw new IllegalArgumentException("Usage: -keys add|list [-keystore <key store path>]");
+        }
+        switch (args.get(1)) {
+            case "add" -> {
+                final List<byte[]> publicKeys = new ArrayList<>();
+                for (int i = 0; i < args.size() - 1; i++) {
+                    if (args.get(i).equals("-keyp")) {
+                        publicKeys.add(readPublicKeyFile(args.subList(i, args.size())));
+                    }
+                }
+                if (publicKeys.isEmpty()) {
+                    throw new IllegalArgumentException("Missing argument -keyp!");
+                }
+                try (final KeyStore store = KeyStore.open(getKeyStorePath(args), true)) {
+                    for (final byte[] fingerprint : store.add(publicKeys)) {
+                        out().println(HexFormat.of().formatHex(fingerprint));
+                    }
+                }
+            }
+            case "list" -> {
+                try (final KeyStore store = KeyStore.open(getKeyStorePath(args), false)) {
+                    store.forEach((fingerprint, publicKey) -> out().println(HexFormat.of().formatHex(fingerprint)));
+                }
+            }
+            default -> throw new IllegalArgumentException("Invalid argument, abort.");
+        }
+    }
+
+    /**
+     * Run many operations at once, either listed in a manifest (-manifest <file>)
+     * or one operation (-op <operation>) on every file below a directory (-dir <directory>)
+     *
+     * @param args the input arguments
+     * @throws IOException fail to read the manifest or the directory
+     */
+    private static void runBatch(final List<String> args) throws IOException {
+        final int manifestIndex = args.indexOf("-manifest");
+        final int dirIndex = args.indexOf("-dir");
+        final List<BatchMode.Entry> entries;
+        if (manifestIndex > 0) {
+            entries = BatchMode.readManifest(Path.of(args.get(manifestIndex + 1)), WORKING_DIRECTORY.get());
+        } else if (dirIndex > 0) {
+            final int opIndex = args.indexOf("-op");
+            entries = BatchMode.listDirectory(Path.of(args.get(dirIndex + 1)), opIndex < 0 ? "-h" : args.get(opIndex + 1), getOutputPath(args));
+        } else {
+            throw new IllegalArgumentException("Missing argument -manifest or -dir!");
+        }
+        final int threadsIndex = args.indexOf("-threads");
+        final int threads = threadsIndex < 0 ? Runtime.getRuntime().availableProcessors() : Integer.parseInt(args.get(threadsIndex + 1));
+        try {
+            BatchMode.run(entries, BatchMode.needsPassphrase(entries) ? getPassphrase(args) : null,
+                    BatchMode.needsPublicKey(entries) ? readPublicKeyFile(args) : null, threads, out());
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while running the batch", e);
+        }
+    }
+
+    /**
+     * Run the throughput benchmark, see the README for its arguments
+     *
+     * @param args the input arguments
+     * @throws IOException fail to write the JSON report
+     */
+    private static void runBenchmark(final List<String> args) throws IOException {
+        final int opsIndex = args.indexOf("-ops");
+        final int sizesIndex = args.indexOf("-sizes");
+        final int threadsIndex = args.indexOf("-threads");
+        final int warmupIndex = args.indexOf("-warmup");
+        final int durationIndex = args.indexOf("-duration");
+        final List<String> operations = opsIndex < 0 ? Benchmark.OPERATIONS : Arrays.asList(args.get(opsIndex + 1).split(","));
+        Benchmark.run(operations,
+                Benchmark.parseList(sizesIndex < 0 ? "64,1024,65536" : args.get(sizesIndex + 1)),
+                Benchmark.parseList(threadsIndex < 0 ? "1," + Runtime.getRuntime().availableProcessors() : args.get(threadsIndex + 1)),
+                (long) (1000 * Double.parseDouble(warmupIndex < 0 ? "2" : args.get(warmupIndex + 1))),
+                (long) (1000 * Double.parseDouble(durationIndex < 0 ? "5" : args.get(durationIndex + 1))),
+                out(), getOutputPath(args));
+    }
+
+    /**
+     * Put a file into, get or delete a blob from, or collect the garbage of the blob store given with -store
+     *
+     * @param args the input arguments
+     * @throws IOException fail to read or to write the store
+     */
+    private static void runBlobStore(final List<String> args) throws IOException {
+        final int storeIndex = args.indexOf("-store");
+        final int idIndex = args.indexOf("-id");
+        if (args.size() < 2 || storeIndex < 0) {
+            throw new IllegalArgumentException("Usage: -blob put|get|delete|gc -store <directory> [-p <passphrase>]");
+        }
+        try (final BlobStore store = BlobStore.open(Path.of(args.get(storeIndex + 1)), getPassphrase(args))) {
+            switch (args.get(1)) {
+                case "put" -> {
+                    final byte[] id;
+                    try (final InputStream in = readsStandardInput(args) ? System.in : Files.newInputStream(getInputPath(args))) {
+                        id = store.put(in);
+                    }
+                    display("Blob id:\n", id);
+                }
+                case "get", "delete" -> {
+                    if (idIndex < 0) {
+                        throw new IllegalArgumentException("Missing argument -id!");
+                    }
+                    final byte[] id = HexFormat.of().parseHex(args.get(idIndex + 1));
+                    if (args.get(1).equals("delete")) {
+                        out().println(store.delete(id) ? "The blob has been deleted." : "The blob is not in the store.");
+                    } else if (getOutputPath(args) == null) {
+                        throw new IllegalArgumentException("You have to specify where to write the blob using '-o <output file path>'");
+                    } else {
+                        try (final OutputStream fileOut = new BufferedOutputStream(Files.newOutputStream(getOutputPath(args)), Armor.BLOCK_SIZE)) {
+                            store.get(id, fileOut);
+                        }
+                        printSavedTo(getOutputPath(args));
+                    }
+                }
+                case "gc" -> {
+                    final int removed = store.collectGarbage();
+                    final long[] statistics = store.getStatistics();
+                    out().printf("Removed %d chunk files, %d chunks (%d bytes) are left.\n", removed, statistics[0], statistics[1]);
+                }
+                default -> throw new IllegalArgumentException("Invalid argument, abort.");
+            }
+        }
+    }
+
+    /**
+     * Hash, tag, encrypt or decrypt the input data in constant memory, reading it piece by piece from
+     * standard input or -f and writing the result to standard output (--stdout) or -o as it is produced.
+     * Nothing but the result is written to standard output, so the operation can sit in a pipeline.
+     *
+     * @param mode the operation, one of {@link #STREAMING_MODES}
+     * @param args the input arguments
+     * @throws IOException fail to read the input data or to write the result
+     */
+    private static void runStreaming(final String mode, final List<String> args) throws IOException {
+        final boolean toStdout = args.contains("--stdout");
+        if (toStdout) {
+            INTERACTIVE.set(false);
+            DISPLAY.set(Display.QUIET);
+        }
+        final byte[] pw = mode.equals("-h") ? null : getPassphrase(args);
+        try (final ReadableByteChannel in = openInputChannel(args, mode.equals("-d") ? ARMOR.get() : Armor.Encoding.BINARY)) {
+            switch (mode) {
+                case "-h", "-t" -> {
+                    final Keccak.Sponge sponge = mode.equals("-h") ? Keccak.newKMACXOF256("".getBytes(), "D") : Keccak.newKMACXOF256(pw, "T");
+                    final ByteBuffer buffer = ByteBuffer.allocate(Armor.BLOCK_SIZE);
+                    while (in.read(buffer) >= 0) {
+                        sponge.update(buffer.flip());
+                        buffer.clear();
+                    }
+                    final byte[] digest = sponge.digest(512);
+                    if (toStdout) {
+                        try (final WritableByteChannel out = openOutputChannel(args, ARMOR.get())) {
+                            ECDHIES.writeFully(out, ByteBuffer.wrap(digest));
+                        }
+                    } else {
+                        display(String.format(mode.equals("-h") ? "Plain cryptographic hash (length %d):\n" : "Authentication tag (length %d):\n", digest.length), digest);
+                    }
+                }
+                case "-e" -> {
+                    try (final WritableByteChannel out = openOutputChannel(args, ARMOR.get())) {
+                        ECDHIES.encrypt(in, out, pw, args.contains("--compress"));
+                    }
+                    printSavedTo(toStdout ? null : getOutputPath(args));
+                }
+                default -> {
+                    try (final WritableByteChannel out = openOutputChannel(args, Armor.Encoding.BINARY)) {
+                        ECDHIES.decrypt(in, out, pw);
+                    } catch (final IllegalArgumentException e) {
+                        // the data has not been authenticated, so it must not be kept
+                        if (!toStdout) {
+                            Files.deleteIfExists(getOutputPath(args));
+                        }
+                        throw e;
+                    }
+                    printSavedTo(toStdout ? null : getOutputPath(args));
+                }
+            }
+        }
+    }
+
+    /**
+     * Computing a plain cryptographic hash
+     *
+     * @param data the data used to compute
+     * @return the hash
+     */
+    static byte[] hash(final byte[] data) {
+        return Keccak.KMACXOF256("".getBytes(), data, 512, "D");
+    }
+
     /**
      * Computing a cryptographic hash
      *
      * @param data the data used to compute
      */
     private static void computeHash(final byte[] data) {
-        final byte[] h = Keccak.KMACXOF256("".getBytes(), data, 512, "D");
-        System.out.printf("Plain cryptographic hash (length %d):\n", h.length);
-        Glossary.displayBytes(h);
+        final byte[] h = hash(data);
+        display(String.format("Plain cryptographic hash (length %d):\n", h.length), h);
+    }
+
+    /**
+     * Computing a Merkle-tree hash of a file, only re-hashing the chunks that changed since the last run
+     *
+     * @param file the file used to compute
+     * @param args the input arguments, for the optional chunk size (-chunk) and index path (-index)
+     * @throws IOException fail to read the file or to write the index
+     */
+    private static void computeMerkleHash(final Path file, final List<String> args) throws IOException {
+        final int chunkIndex = args.indexOf("-chunk");
+        final int indexIndex = args.indexOf("-index");
+        final MerkleHash.Result theResult = MerkleHash.hash(file,
+                indexIndex < 0 ? MerkleHash.getDefaultIndexPath(file) : Path.of(args.get(indexIndex + 1)),
+                chunkIndex < 0 ? MerkleHash.DEFAULT_CHUNK_SIZE : Integer.parseInt(args.get(chunkIndex + 1)));
+        display(String.format("Merkle-tree hash (length %d, %d of %d chunks re-hashed):\n",
+                theResult.getRoot().length, theResult.getRehashedChunks(), theResult.getTotalChunks()), theResult.getRoot());
     }
 
     /**
@@ -169,8 +711,48 @@ final class Main {
      */
     private static void computeTag(final byte[] data, final byte[] pw) {
         final byte[] t = Keccak.KMACXOF256(pw, data, 512, "T");
-        System.out.printf("Authentication tag (length %d):\n", t.length);
-        Glossary.displayBytes(t);
+        display(String.format("Authentication tag (length %d):\n", t.length), t);
+    }
+
+    /**
+     * Print a result to console as selected by --quiet and --raw
+     *
+     * @param title   the title printed before the hex dump
+     * @param theData the result
+     */
+    private static void display(final String title, final byte[] theData) {
+        switch (DISPLAY.get()) {
+            case DUMP -> {
+                out().print(title);
+                Glossary.displayBytes(out(), theData);
+            }
+            case RAW -> Armor.writeLine(out(), theData, ARMOR.get());
+            case QUIET -> {
+            }
+        }
+    }
+
+    /**
+     * Print a decrypted message to console as text, unless --quiet or --raw is given
+     *
+     * @param dec_data the decrypted message
+     */
+    private static void displayMessage(final byte[] dec_data) {
+        if (DISPLAY.get() == Display.DUMP) {
+            out().printf("Decrypted message: %s\n", new String(dec_data));
+        }
+    }
+
+    /**
+     * Tell where the data has been saved to, unless --quiet or --raw is given
+     *
+     * @param savedTo where the data has been saved to, nothing is printed if it is null
+     */
+    private static void printSavedTo(final Path savedTo) {
+        if (savedTo != null && DISPLAY.get() == Display.DUMP) {
+            out().println("\nData has been saved to:");
+            out().println(savedTo);
+        }
     }
 
     /**
@@ -180,14 +762,36 @@ final class Main {
      * @param theData the byte array that will be saved
      */
     private static void saveByteArray(final Path savedTo, final byte[] theData) {
+        saveByteArray(savedTo, theData, Armor.Encoding.BINARY);
+    }
+
+    /**
+     * Save given cryptogram, signature or key to path if path is not null, in the encoding given with --armor
+     *
+     * @param savedTo save byte array to path
+     * @param theData the byte array that will be saved
+     */
+    private static void saveArmoredByteArray(final Path savedTo, final byte[] theData) {
+        saveByteArray(savedTo, theData, ARMOR.get());
+    }
+
+    /**
+     * Save given byte array to path in the given encoding if path is not null
+     *
+     * @param savedTo  save byte array to path
+     * @param theData  the byte array that will be saved
+     * @param encoding the encoding of the file
+     */
+    private static void saveByteArray(final Path savedTo, final byte[] theData, final Armor.Encoding encoding) {
         if (savedTo != null) {
             try {
-                Files.write(savedTo, theData);
-                System.out.println("\nData has been saved to:");
-                System.out.println(savedTo);
+                try (final OutputStream fileOut = Armor.encoding(new BufferedOutputStream(Files.newOutputStream(savedTo), Armor.BLOCK_SIZE), encoding)) {
+                    fileOut.write(theData);
+                }
+                printSavedTo(savedTo);
             } catch (final IOException e) {
-                System.out.println("\nWarning, cannot save the data!");
-                System.out.println(e.getMessage());
+                out().println("\nWarning, cannot save the data!");
+                out().println(e.getMessage());
             }
         }
     }
@@ -195,15 +799,15 @@ final class Main {
     /**
      * encrypt given byte array data
      *
-     * @param data    the data that will be encrypted
-     * @param pw      the passphrase that will be used
-     * @param savedTo save encrypted data to path
+     * @param data     the data that will be encrypted
+     * @param pw       the passphrase that will be used
+     * @param savedTo  save encrypted data to path
+     * @param compress whether to compress the data before encryption
      */
-    private static void encryptData(final byte[] data, final byte[] pw, final Path savedTo) {
-        final byte[] enc_data = ECDHIES.encrypt(data, pw);
-        System.out.printf("Encrypted data (length %d):\n", enc_data.length);
-        Glossary.displayBytes(enc_data);
-        saveByteArray(savedTo, enc_data);
+    private static void encryptData(final byte[] data, final byte[] pw, final Path savedTo, final boolean compress) {
+        final byte[] enc_data = ECDHIES.encrypt(data, pw, compress);
+        display(String.format("Encrypted data (length %d):\n", enc_data.length), enc_data);
+        saveArmoredByteArray(savedTo, enc_data);
     }
 
     /**
@@ -215,9 +819,8 @@ final class Main {
      */
     private static void decryptData(final byte[] enc_data, final byte[] pw, final Path savedTo) {
         final byte[] dec_data = ECDHIES.decrypt(enc_data, pw);
-        System.out.printf("\nDecrypted data (length %d):\n", dec_data.length);
-        Glossary.displayBytes(dec_data);
-        System.out.printf("Decrypted message: %s\n", new String(dec_data));
+        display(String.format("\nDecrypted data (length %d):\n", dec_data.length), dec_data);
+        displayMessage(dec_data);
         saveByteArray(savedTo, dec_data);
     }
 
@@ -235,16 +838,16 @@ final class Main {
         final byte[] publicKey = theKeyPair.getPublicKey();
         final byte[] privateKey = theKeyPair.getPrivateKey();
         // print public key to console
-        System.out.printf("\nPublic key (length %d):\n", publicKey.length);
-        Glossary.displayBytes(publicKey);
+        display(String.format("\nPublic key (length %d):\n", publicKey.length), publicKey);
         // write the public key to a file
-        saveByteArray(publicKeySavedTo, publicKey);
+        saveArmoredByteArray(publicKeySavedTo, publicKey);
         // print private key to console
-        System.out.printf("\nPrivate key (length %d):\n", privateKey.length);
-        Glossary.displayBytes(privateKey);
-        System.out.println();
+        display(String.format("\nPrivate key (length %d):\n", privateKey.length), privateKey);
+        if (DISPLAY.get() == Display.DUMP) {
+            out().println();
+        }
         // Encrypt the private key from that pair under the given password and write it to a different file
-        encryptData(privateKey, pw, privateKeySavedTo);
+        encryptData(privateKey, pw, privateKeySavedTo, false);
     }
 
     /**
@@ -256,9 +859,35 @@ final class Main {
      */
     private static void encryptDataUsingPublicKey(final byte[] data, final byte[] publicKey, final Path ciphertextSavedTo) {
         final byte[] enc_data = EllipticCurves.encrypt(data, publicKey);
-        System.out.printf("Encrypted data using given elliptic public key (length %d):\n", enc_data.length);
-        Glossary.displayBytes(enc_data);
-        saveByteArray(ciphertextSavedTo, enc_data);
+        display(String.format("Encrypted data using given elliptic public key (length %d):\n", enc_data.length), enc_data);
+        saveArmoredByteArray(ciphertextSavedTo, enc_data);
+    }
+
+    /**
+     * Encrypt a data once under many given elliptic public keys and write the ciphertext to a file
+     *
+     * @param data              the data that will be encrypted
+     * @param publicKeys        the public keys of all recipients
+     * @param ciphertextSavedTo save the ciphertext to path
+     */
+    private static void encryptDataForRecipients(final byte[] data, final List<byte[]> publicKeys, final Path ciphertextSavedTo) {
+        final byte[] enc_data = MultiRecipientEncryption.encrypt(data, publicKeys);
+        display(String.format("Encrypted data for %d recipients (length %d):\n", publicKeys.size(), enc_data.length), enc_data);
+        saveArmoredByteArray(ciphertextSavedTo, enc_data);
+    }
+
+    /**
+     * Decrypt a data encrypted for many recipients with the password of one of them and write the data to a file
+     *
+     * @param data    the data that will be decrypted
+     * @param pw      the password that will be used for decryption
+     * @param savedTo save the decryption data to path
+     */
+    private static void decryptDataForRecipient(final byte[] data, final byte[] pw, final Path savedTo) {
+        final byte[] dec_data = MultiRecipientEncryption.decrypt(data, pw);
+        display(String.format("Decrypted data using given password (length %d):\n", dec_data.length), dec_data);
+        displayMessage(dec_data);
+        saveByteArray(savedTo, dec_data);
     }
 
     /**
@@ -270,9 +899,8 @@ final class Main {
      */
     private static void decryptDataUsingPublicKey(final byte[] data, final byte[] pw, final Path savedTo) {
         final byte[] dec_data = EllipticCurves.decrypt(data, pw);
-        System.out.printf("Decrypted data using given password (length %d):\n", dec_data.length);
-        Glossary.displayBytes(dec_data);
-        System.out.printf("Decrypted message: %s\n", new String(dec_data));
+        display(String.format("Decrypted data using given password (length %d):\n", dec_data.length), dec_data);
+        displayMessage(dec_data);
         saveByteArray(savedTo, dec_data);
     }
 
@@ -285,14 +913,42 @@ final class Main {
      */
     private static void generateSignature(final byte[] data, final byte[] pw, final Path savedTo) throws IOException {
         final EllipticCurveKeyPair theSignatureKeyPair = EllipticCurves.getSignature(data, pw);
-        System.out.printf("Signature public key (length %d):\n", theSignatureKeyPair.getPublicKey().length);
-        Glossary.displayBytes(theSignatureKeyPair.getPublicKey());
-        System.out.printf("Signature private key (length %d):\n", theSignatureKeyPair.getPrivateKey().length);
-        Glossary.displayBytes(theSignatureKeyPair.getPrivateKey());
-        saveByteArray(savedTo, EllipticCurveKeyPair.toByteArray(theSignatureKeyPair));
+        display(String.format("Signature public key (length %d):\n", theSignatureKeyPair.getPublicKey().length), theSignatureKeyPair.getPublicKey());
+        display(String.format("Signature private key (length %d):\n", theSignatureKeyPair.getPrivateKey().length), theSignatureKeyPair.getPrivateKey());
+        saveArmoredByteArray(savedTo, EllipticCurveKeyPair.toByteArray(theSignatureKeyPair));
     }
 
 
+    /**
+     * Sign the digest of a given file from a given password and write the signature to a file.
+     * The file is read once and never held in memory as a whole.
+     *
+     * @param file    the file that needs to be signed
+     * @param pw      the password that will be used for
+     * @param savedTo write the signature to path
+     */
+    private static void generatePreHashedSignature(final Path file, final byte[] pw, final Path savedTo) throws IOException {
+        final EllipticCurveKeyPair theSignatureKeyPair = EllipticCurves.getPreHashedSignature(file, pw);
+        display(String.format("Pre-hashed signature public key (length %d):\n", theSignatureKeyPair.getPublicKey().length), theSignatureKeyPair.getPublicKey());
+        display(String.format("Pre-hashed signature private key (length %d):\n", theSignatureKeyPair.getPrivateKey().length), theSignatureKeyPair.getPrivateKey());
+        saveArmoredByteArray(savedTo, EllipticCurveKeyPair.toByteArray(theSignatureKeyPair));
+    }
+
+    /**
+     * Verify a given file and its pre-hashed signature under a given public key file.
+     *
+     * @param file         the file that has been signed
+     * @param theSignature the signature that needs to be checked
+     * @param publicKey    the public key
+     */
+    private static void verifyPreHashedSignature(final Path file, final byte[] theSignature, final byte[] publicKey) throws IOException, ClassNotFoundException {
+        if (EllipticCurves.verifyPreHashedSignature(theSignature, file, publicKey)) {
+            out().println("Valid Signature.");
+        } else {
+            out().println("Signature is not valid!!");
+        }
+    }
+
     /**
      * Verify a given data and its signature under a given public key file.
      *
@@ -302,9 +958,9 @@ final class Main {
      */
     private static void verifySignature(final byte[] data, final byte[] theSignature, final byte[] publicKey) throws IOException, ClassNotFoundException {
         if (EllipticCurves.verifySignature(theSignature, data, publicKey)) {
-            System.out.println("Valid Signature.");
+            out().println("Valid Signature.");
         } else {
-            System.out.println("Signature is not valid!!");
+            out().println("Signature is not valid!!");
         }
     }
 }
@@ -0,0 +1,249 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.IntStream;
+import java.util.zip.CRC32C;
+
+/**
+ * Incremental Merkle-tree hashing of large files over fixed-size chunks.
+ * <p>
+ * Leaf i is KMACXOF256(left_encode(i), chunk_i, 512, "ML"), an inner node is KMACXOF256("", left || right, 512, "MN")
+ * (a node without a sibling moves up unchanged), and the root is KMACXOF256(right_encode(file size), top, 512, "MR").
+ * <p>
+ * The leaf digests are kept in a sidecar index together with the size and the modification time of the file and the
+ * offset and CRC32C of every chunk. If size and modification time are unchanged, the root is rebuilt from the index
+ * without reading the file. Otherwise every chunk is read once, but only chunks whose CRC32C or length changed are run
+ * through the sponge again. The CRC32C only detects accidental changes: the index has to be trusted, and a file that
+ * may have been tampered with should be hashed with a fresh index.
+ *
+ * @author Yudong Lin
+ */
+final class MerkleHash {
+    static final int DEFAULT_CHUNK_SIZE = 1 << 20;
+    private static final int INDEX_MAGIC = 0x4d524b4c; // "MRKL"
+    private static final int INDEX_VERSION = 1;
+    private static final int DIGEST_LEN = 64;
+
+    private MerkleHash() {
+    }
+
+    /**
+     * Get the default sidecar index path of a file, which is the file path with ".mrkl" appended
+     *
+     * @param file the file
+     * @return the index path
+     */
+    static Path getDefaultIndexPath(final Path file) {
+        return file.resolveSibling(file.getFileName() + ".mrkl");
+    }
+
+    /**
+     * Compute the Merkle root of a file, reusing and then updating the sidecar index
+     *
+     * @param file      the file to be hashed
+     * @param index     the sidecar index, which does not have to exist yet
+     * @param chunkSize the chunk size, an index with another chunk size is ignored
+     * @return the root and how many chunks had to be hashed
+     * @throws IOException fail to read the file or to write the index
+     */
+    static Result hash(final Path file, final Path index, final int chunkSize) throws IOException {
+        if (chunkSize <= 0) {
+            throw new IllegalArgumentException("The chunk size has to be positive!");
+        }
+        final long size = Files.size(file);
+        final long modified = Files.getLastModifiedTime(file).toMillis();
+        final Index old = Index.read(index, chunkSize);
+        if (old != null && old.mySize == size && old.myModified == modified) {
+            return new Result(root(old.myDigests, size), 0, old.myDigests.length);
+        }
+
+        final int count = (int) Math.max(1, (size + chunkSize - 1) / chunkSize);
+        final int[] checksums = new int[count];
+        final byte[][] digests = new byte[count][];
+        final AtomicInteger rehashed = new AtomicInteger();
+        try (final FileChannel theChannel = FileChannel.open(file, StandardOpenOption.READ)) {
+            IntStream.range(0, count).parallel().forEach(i -> {
+                final long offset = (long) i * chunkSize;
+                final int length = (int) Math.min(chunkSize, size - offset);
+                final ByteBuffer chunk = ByteBuffer.allocate(length);
+                try {
+                    while (chunk.hasRemaining() && theChannel.read(chunk, offset + chunk.position()) >= 0) {
+                        // keep reading until the chunk is full
+                    }
+                } catch (final IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+                if (chunk.hasRemaining()) {
+                    throw new UncheckedIOException(new EOFException("The file shrank while it was being hashed"));
+                }
+                final CRC32C crc = new CRC32C();
+                crc.update(chunk.flip());
+                checksums[i] = (int) crc.getValue();
+                if (old != null && old.hasChunk(i, length, checksums[i])) {
+                    digests[i] = old.myDigests[i];
+                } else {
+                    final Keccak.Sponge theSponge = Keccak.newKMACXOF256(Glossary.left_encode(i), "ML");
+                    theSponge.update(chunk.rewind());
+                    digests[i] = theSponge.digest(DIGEST_LEN * 8);
+                    rehashed.incrementAndGet();
+                }
+            });
+        } catch (final UncheckedIOException e) {
+            throw e.getCause();
+        }
+        new Index(chunkSize, size, modified, checksums, digests).write(index);
+        return new Result(root(digests, size), rehashed.get(), count);
+    }
+
+    /**
+     * Build the root from the leaf digests
+     *
+     * @param leaves the leaf digests
+     * @param size   the file size
+     * @return the root
+     */
+    private static byte[] root(final byte[][] leaves, final long size) {
+        byte[][] level = leaves;
+        while (level.length > 1) {
+            final byte[][] next = new byte[(level.length + 1) / 2][];
+            for (int i = 0; i < next.length; i++) {
+                next[i] = 2 * i + 1 < level.length
+                        ? Keccak.KMACXOF256(new byte[]{}, Glossary.array_concatenation(level[2 * i], level[2 * i + 1]), DIGEST_LEN * 8, "MN")
+                        : level[2 * i];
+            }
+            level = next;
+        }
+        return Keccak.KMACXOF256(Glossary.right_encode(size), level[0], DIGEST_LEN * 8, "MR");
+    }
+
+    /**
+     * The outcome of {@link #hash(Path, Path, int)}.
+     */
+    static final class Result {
+        private final byte[] myRoot;
+        private final int myRehashedChunks;
+        private final int myTotalChunks;
+
+        private Result(final byte[] theRoot, final int theRehashedChunks, final int theTotalChunks) {
+            this.myRoot = theRoot;
+            this.myRehashedChunks = theRehashedChunks;
+            this.myTotalChunks = theTotalChunks;
+        }
+
+        /**
+         * Getter for the Merkle root.
+         *
+         * @return Returns the Merkle root.
+         */
+        byte[] getRoot() {
+            return this.myRoot;
+        }
+
+        /**
+         * Getter for the number of chunks that had to be run through the sponge.
+         *
+         * @return Returns the number of re-hashed chunks.
+         */
+        int getRehashedChunks() {
+            return this.myRehashedChunks;
+        }
+
+        /**
+         * Getter for the number of chunks of the file.
+         *
+         * @return Returns the number of chunks.
+         */
+        int getTotalChunks() {
+            return this.myTotalChunks;
+        }
+    }
+
+    /**
+     * The sidecar index: magic, version, chunk size, file size, modification time and chunk count, followed by the
+     * offset, CRC32C and leaf digest of every chunk.
+     */
+    private static final class Index {
+        private final int myChunkSize;
+        private final long mySize;
+        private final long myModified;
+        private final int[] myChecksums;
+        private final byte[][] myDigests;
+
+        private Index(final int theChunkSize, final long theSize, final long theModified,
+                      final int[] theChecksums, final byte[][] theDigests) {
+            this.myChunkSize = theChunkSize;
+            this.mySize = theSize;
+            this.myModified = theModified;
+            this.myChecksums = theChecksums;
+            this.myDigests = theDigests;
+        }
+
+        /**
+         * Whether chunk i is in the index with the given length and checksum
+         */
+        private boolean hasChunk(final int i, final int length, final int checksum) {
+            return i < myDigests.length && Math.min(myChunkSize, mySize - (long) i * myChunkSize) == length
+                    && myChecksums[i] == checksum;
+        }
+
+        /**
+         * Read an index, ignoring it if it does not exist, is damaged or uses another chunk size
+         *
+         * @return the index, or null if it cannot be used
+         */
+        private static Index read(final Path index, final int chunkSize) {
+            try (final DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(index)))) {
+                if (in.readInt() != INDEX_MAGIC || in.readInt() != INDEX_VERSION || in.readInt() != chunkSize) {
+                    return null;
+                }
+                final long size = in.readLong();
+                final long modified = in.readLong();
+                final int count = in.readInt();
+                if (count < 0 || count != Math.max(1, (size + chunkSize - 1) / chunkSize)) {
+                    return null;
+                }
+                final int[] checksums = new int[count];
+                final byte[][] digests = new byte[count][];
+                for (int i = 0; i < count; i++) {
+                    if (in.readLong() != (long) i * chunkSize) {
+                        return null;
+                    }
+                    checksums[i] = in.readInt();
+                    digests[i] = in.readNBytes(DIGEST_LEN);
+                    if (digests[i].length != DIGEST_LEN) {
+                        return null;
+                    }
+                }
+                return new Index(chunkSize, size, modified, checksums, digests);
+            } catch (final IOException e) {
+                return null;
+            }
+        }
+
+        /**
+         * Write the index to a temporary file first and then move it into place, so a crash never leaves a broken index
+         */
+        private void write(final Path index) throws IOException {
+            final Path temporary = index.resolveSibling(index.getFileName() + ".tmp");
+            try (final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temporary)))) {
+                out.writeInt(INDEX_MAGIC);
+                out.writeInt(INDEX_VERSION);
+                out.writeInt(myChunkSize);
+                out.writeLong(mySize);
+                out.writeLong(myModified);
+                out.writeInt(myDigests.length);
+                for (int i = 0; i < myDigests.length; i++) {
+                    out.writeLong((long) i * myChunkSize);
+                    out.writeInt(myChecksums[i]);
+                    out.write(myDigests[i]);
+                }
+            }
+            Files.move(temporary, index, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+    }
+}
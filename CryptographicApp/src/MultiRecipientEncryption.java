@@ -0,0 +1,103 @@
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.IntStream;
+
+/**
+ * Hybrid encryption of one message to many (Schnorr/DHIES) public keys.
+ * The message is encrypted only once with the symmetric ECDHIES scheme under a random data key,
+ * and only that short data key is encrypted to every recipient with {@link EllipticCurves#encrypt(byte[], byte[])}.
+ * <p>
+ * Cryptogram layout: the version byte, the number of recipients as an unsigned short, then for every recipient
+ * the fingerprint of its public key followed by its wrapped data key, and finally the ECDHIES cryptogram of the message.
+ *
+ * @author Yudong Lin
+ */
+final class MultiRecipientEncryption {
+    static final byte MULTI_RECIPIENT_VERSION = 0x02;
+    private static final int DATA_KEY_LEN = 64;
+    private static final int WRAPPED_KEY_LEN = 1 + EllipticCurvePoint.COMPRESSED_BYTE_LENGTH + DATA_KEY_LEN + 64;
+    private static final int RECIPIENT_LEN = EllipticCurves.FINGERPRINT_LEN + WRAPPED_KEY_LEN;
+
+    private MultiRecipientEncryption() {
+    }
+
+    /**
+     * Encrypting a byte array m under many (Schnorr/DHIES) public keys, the data keys are wrapped in parallel
+     *
+     * @param m          message to be encrypted
+     * @param publicKeys public keys of the recipients
+     * @return cryptogram
+     */
+    static byte[] encrypt(final byte[] m, final List<byte[]> publicKeys) {
+        if (publicKeys.isEmpty() || publicKeys.size() > 0xffff) {
+            throw new IllegalArgumentException("The number of recipients has to be between 1 and 65535!");
+        }
+        final byte[] dataKey = Glossary.random(DATA_KEY_LEN * 8);
+        try {
+            final byte[] payload = ECDHIES.encrypt(m, dataKey);
+            final ByteBuffer theCryptogram = ByteBuffer.allocate(1 + 2 + publicKeys.size() * RECIPIENT_LEN + payload.length)
+                    .put(MULTI_RECIPIENT_VERSION)
+                    .putShort((short) publicKeys.size());
+            final byte[][] recipients = new byte[publicKeys.size()][];
+            IntStream.range(0, recipients.length).parallel().forEach(i -> recipients[i] = Glossary.array_concatenation(
+                    EllipticCurves.getFingerprint(publicKeys.get(i)), EllipticCurves.encrypt(dataKey, publicKeys.get(i))
+            ));
+            for (final byte[] theRecipient : recipients) {
+                theCryptogram.put(theRecipient);
+            }
+            return theCryptogram.put(payload).array();
+        } finally {
+            Arrays.fill(dataKey, (byte) 0);
+        }
+    }
+
+    /**
+     * Decrypting a multi-recipient cryptogram under passphrase pw
+     *
+     * @param data cryptogram
+     * @param pw   passphrase
+     * @return decrypted data
+     */
+    static byte[] decrypt(final byte[] data, final byte[] pw) {
+        final PrivateKeyHandle key = new PrivateKeyHandle(pw);
+        try {
+            return decrypt(data, key);
+        } finally {
+            key.destroy();
+        }
+    }
+
+    /**
+     * Decrypting a multi-recipient cryptogram under a private key handle. The wrapped data key is found
+     * by the fingerprint of the public key, so only one unwrap has to be done regardless of the number of recipients.
+     *
+     * @param data cryptogram
+     * @param key  the private key handle
+     * @return decrypted data
+     */
+    static byte[] decrypt(final byte[] data, final PrivateKeyHandle key) {
+        if (data.length < 3 || data[0] != MULTI_RECIPIENT_VERSION) {
+            throw new IllegalArgumentException("Not a multi-recipient cryptogram!");
+        }
+        final int count = Short.toUnsignedInt(ByteBuffer.wrap(data, 1, 2).getShort());
+        final int payloadIndex = 3 + count * RECIPIENT_LEN;
+        if (data.length < payloadIndex) {
+            throw new IllegalArgumentException("Truncated multi-recipient cryptogram!");
+        }
+        final byte[] fingerprint = EllipticCurves.getFingerprint(key.getPublicKey());
+        for (int i = 0; i < count; i++) {
+            final int recipientIndex = 3 + i * RECIPIENT_LEN;
+            if (Arrays.equals(data, recipientIndex, recipientIndex + EllipticCurves.FINGERPRINT_LEN, fingerprint, 0, fingerprint.length)) {
+                final byte[] dataKey = EllipticCurves.decrypt(Arrays.copyOfRange(
+                        data, recipientIndex + EllipticCurves.FINGERPRINT_LEN, recipientIndex + RECIPIENT_LEN), key);
+                try {
+                    return ECDHIES.decrypt(Arrays.copyOfRange(data, payloadIndex, data.length), dataKey);
+                } finally {
+                    Arrays.fill(dataKey, (byte) 0);
+                }
+            }
+        }
+        throw new IllegalArgumentException("The cryptogram is not encrypted to this key!");
+    }
+}
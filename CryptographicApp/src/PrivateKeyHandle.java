@@ -0,0 +1,94 @@
+import javax.security.auth.Destroyable;
+import java.math.BigInteger;
+import java.util.Arrays;
+
+/**
+ * A private key derived from a passphrase once and then reused for many decryptions and signatures.
+ * Besides the private scalar s it keeps the KMACXOF256 sponge that has already absorbed s for the signing nonce,
+ * so neither the passphrase derivation nor the key absorption is repeated per operation.
+ * Call {@link #destroy()} once the handle is no longer needed to overwrite the key material with zeros.
+ *
+ * @author Yudong Lin
+ */
+final class PrivateKeyHandle implements Destroyable {
+    private final byte[] myScalar;
+    private final Keccak.Sponge myNonceSponge;
+    private volatile byte[] myPublicKey;
+    private volatile boolean myDestroyed;
+
+    /**
+     * Derive a new handle from passphrase
+     *
+     * @param pw passphrase
+     */
+    PrivateKeyHandle(final byte[] pw) {
+        this.myScalar = EllipticCurves.getPrivateScalar(pw).toByteArray();
+        this.myNonceSponge = Keccak.newKMACXOF256(myScalar, "N");
+    }
+
+    /**
+     * Getter for the private scalar s.
+     *
+     * @return Returns the private scalar.
+     */
+    BigInteger getScalar() {
+        checkNotDestroyed();
+        return new BigInteger(myScalar);
+    }
+
+    /**
+     * Getter for the encoded public key V = s*G, which is only computed the first time it is needed.
+     *
+     * @return Returns the encoded public key.
+     */
+    byte[] getPublicKey() {
+        checkNotDestroyed();
+        byte[] V = myPublicKey;
+        if (V == null) {
+            V = EllipticCurves.getPublicKey(getScalar());
+            myPublicKey = V;
+        }
+        return V.clone();
+    }
+
+    /**
+     * Compute the signing nonce KMACXOF256(s, m, 512, "N") for a message, starting from the sponge that
+     * has already absorbed s
+     *
+     * @param m the data to be signed
+     * @return the nonce before it is reduced to a scalar
+     */
+    byte[] getNonce(final byte[] m) {
+        checkNotDestroyed();
+        final Keccak.Sponge theSponge = myNonceSponge.copy();
+        theSponge.update(m);
+        return theSponge.digest(512);
+    }
+
+    /**
+     * Overwrite the private scalar and the precomputed sponge with zeros. The handle cannot be used afterwards.
+     * BigInteger copies handed out by {@link #getScalar()} are immutable and cannot be cleared.
+     */
+    @Override
+    public void destroy() {
+        myDestroyed = true;
+        Arrays.fill(myScalar, (byte) 0);
+        myNonceSponge.clear();
+    }
+
+    /**
+     * Whether {@link #destroy()} has been called.
+     *
+     * @return Returns true if the handle has been destroyed.
+     */
+    @Override
+    public boolean isDestroyed() {
+        return myDestroyed;
+    }
+
+    private void checkNotDestroyed() {
+        if (myDestroyed) {
+            throw new IllegalStateException("The private key handle has been destroyed!");
+        }
+    }
+}
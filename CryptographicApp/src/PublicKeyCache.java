@@ -0,0 +1,102 @@
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A bounded, thread-safe LRU cache of recipient public keys, keyed by their encoded form.
+ * Each entry holds the already validated point and a table of its precomputed multiples,
+ * so encrypting to a recent recipient again skips both the decoding and most of the multiplication work.
+ *
+ * @author Yudong Lin
+ */
+final class PublicKeyCache {
+    private final Map<ByteBuffer, Recipient> myRecipients;
+
+    /**
+     * Create a new cache
+     *
+     * @param theCapacity the maximum number of public keys that will be kept
+     */
+    PublicKeyCache(final int theCapacity) {
+        if (theCapacity < 1) {
+            throw new IllegalArgumentException("The capacity has to be positive!");
+        }
+        this.myRecipients = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(final Map.Entry<ByteBuffer, Recipient> eldest) {
+                return size() > theCapacity;
+            }
+        };
+    }
+
+    /**
+     * Get the recipient behind the given encoded public key, decoding it and precomputing its multiples on a miss.
+     * The expensive work happens outside the lock, so concurrent misses on different keys do not wait for each other.
+     *
+     * @param V the encoded public key
+     * @return the cached recipient
+     */
+    Recipient get(final byte[] V) {
+        final ByteBuffer key = ByteBuffer.wrap(V.clone());
+        synchronized (myRecipients) {
+            final Recipient cached = myRecipients.get(key);
+            if (cached != null) {
+                return cached;
+            }
+        }
+        final Recipient recipient = new Recipient(EllipticCurves.decodePoint(V));
+        synchronized (myRecipients) {
+            final Recipient cached = myRecipients.putIfAbsent(key, recipient);
+            return cached != null ? cached : recipient;
+        }
+    }
+
+    /**
+     * Get the number of public keys that are currently cached
+     *
+     * @return the number of cached public keys
+     */
+    int size() {
+        synchronized (myRecipients) {
+            return myRecipients.size();
+        }
+    }
+
+    /**
+     * A decoded public key together with its precomputed multiples.
+     */
+    static final class Recipient {
+        private final EllipticCurvePoint myPoint;
+        private final BigInteger[][] myMultiples;
+
+        /**
+         * Create a new recipient
+         *
+         * @param thePoint the decoded public key
+         */
+        private Recipient(final EllipticCurvePoint thePoint) {
+            this.myPoint = thePoint;
+            this.myMultiples = thePoint.precomputeMultiples();
+        }
+
+        /**
+         * Getter for the decoded public key.
+         *
+         * @return Returns the public key as a point.
+         */
+        EllipticCurvePoint getPoint() {
+            return this.myPoint;
+        }
+
+        /**
+         * Multiplies the public key by a non-negative scalar and returns only the x coordinate of the result.
+         *
+         * @param s Parameter for the scalar to multiply by.
+         * @return Returns the x coordinate of the public key multiplied by the parameter scalar.
+         */
+        BigInteger scalarMultiplyX(final BigInteger s) {
+            return EllipticCurvePoint.scalarMultiplyX(myMultiples, s);
+        }
+    }
+}
@@ -0,0 +1,191 @@
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A bounded, thread-safe LRU cache of recent signature verification results.
+ * Entries are keyed by a KMAC digest of the (signature, message, public key) triple under a key chosen at random
+ * for every cache, so a repeated verification costs one pass of Keccak over the message and a lookup instead of
+ * decoding the signature and the public key and multiplying two points. Entries expire after a fixed time to live.
+ * <p>
+ * The entries are spread over independently locked stripes by their digest, so concurrent verifications rarely
+ * wait for each other; every stripe evicts its own least recently used entry. Hits and misses are counted in
+ * {@link CryptoMetrics}.
+ *
+ * @author Yudong Lin
+ */
+final class VerificationCache {
+    private static final int DIGEST_BITS = 256;
+    private static final int MAX_STRIPES = 16;
+    /**
+     * The smallest number of entries a stripe holds, so that a small cache stays close to an exact LRU
+     */
+    private static final int MIN_STRIPE_CAPACITY = 64;
+    private final List<Map<ByteBuffer, Entry>> myStripes;
+    private final long myTimeToLiveNanos;
+    private final byte[] myKey = Glossary.random(32);
+
+    /**
+     * Create a new cache
+     *
+     * @param theCapacity         the maximum number of results that will be kept
+     * @param theTimeToLiveMillis how long a result is kept after it has been computed, in milliseconds
+     */
+    VerificationCache(final int theCapacity, final long theTimeToLiveMillis) {
+        if (theCapacity < 1 || theTimeToLiveMillis < 1) {
+            throw new IllegalArgumentException("The capacity and the time to live have to be positive!");
+        }
+        this.myTimeToLiveNanos = theTimeToLiveMillis * 1_000_000;
+        final int stripes = Math.max(1, Math.min(MAX_STRIPES, Integer.highestOneBit(theCapacity / MIN_STRIPE_CAPACITY)));
+        this.myStripes = new ArrayList<>(stripes);
+        for (int i = 0; i < stripes; i++) {
+            final int stripeCapacity = theCapacity / stripes + (i < theCapacity % stripes ? 1 : 0);
+            this.myStripes.add(new LinkedHashMap<>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(final Map.Entry<ByteBuffer, Entry> eldest) {
+                    return size() > stripeCapacity;
+                }
+            });
+        }
+    }
+
+    public static void main(final String[] args) throws InterruptedException {
+        final VerificationCache cache = new VerificationCache(3, 60_000);
+        final ByteBuffer a = cache.digest("a".getBytes(), "m".getBytes(), "V".getBytes());
+        final ByteBuffer b = cache.digest("b".getBytes(), "m".getBytes(), "V".getBytes());
+        final ByteBuffer c = cache.digest("c".getBytes(), "m".getBytes(), "V".getBytes());
+        final ByteBuffer d = cache.digest("d".getBytes(), "m".getBytes(), "V".getBytes());
+        // the parts are length prefixed, so moving a byte from one to the next is a different triple
+        assert !cache.digest("ab".getBytes(), "m".getBytes(), "V".getBytes()).equals(cache.digest("a".getBytes(), "bm".getBytes(), "V".getBytes()));
+
+        // a cached hit
+        final long hits = CryptoMetrics.VERIFICATION_CACHE_HITS.sum();
+        assert cache.get(a) == null;
+        cache.put(a, true);
+        cache.put(b, false);
+        assert cache.get(a) == Boolean.TRUE;
+        assert cache.get(b) == Boolean.FALSE;
+        assert CryptoMetrics.VERIFICATION_CACHE_HITS.sum() == hits + 2;
+
+        // LRU eviction: a was used after b, so b is the one evicted
+        cache.put(c, true);
+        assert cache.get(a) == Boolean.TRUE;
+        cache.put(d, true);
+        assert cache.size() == 3;
+        assert cache.get(b) == null;
+        assert cache.get(a) == Boolean.TRUE && cache.get(c) == Boolean.TRUE && cache.get(d) == Boolean.TRUE;
+
+        // TTL expiry
+        final VerificationCache expiring = new VerificationCache(16, 1);
+        expiring.put(a, true);
+        Thread.sleep(5);
+        assert expiring.get(a) == null;
+        assert expiring.size() == 0;
+
+        // a malformed signature is not cached
+        EllipticCurves.enableVerificationCache(16, 60_000);
+        try {
+            final byte[] V = EllipticCurves.getSchnorrKeyPair("pw".getBytes()).getPublicKey();
+            try {
+                EllipticCurves.verifySignature(new byte[]{1, 2, 3}, "m".getBytes(), V);
+            } catch (final Exception ignored) {
+                // rejected as malformed
+            }
+            assert EllipticCurves.getVerificationCache().size() == 0;
+        } finally {
+            EllipticCurves.disableVerificationCache();
+        }
+    }
+
+    /**
+     * Digest a (signature, message, public key) triple into the key of its cache entry.
+     * Every part is preceded by its length, so different triples never run together into the same input.
+     *
+     * @param signature the signature
+     * @param m         the data
+     * @param V         the encoded public key
+     * @return the key of the entry
+     */
+    ByteBuffer digest(final byte[] signature, final byte[] m, final byte[] V) {
+        final Keccak.Sponge theSponge = Keccak.newKMACXOF256(myKey, "VC");
+        theSponge.update(Glossary.encode_string(signature));
+        theSponge.update(Glossary.encode_string(V));
+        theSponge.update(Glossary.left_encode(8L * m.length));
+        theSponge.update(m);
+        return ByteBuffer.wrap(theSponge.digest(DIGEST_BITS));
+    }
+
+    /**
+     * Look up the result for a triple, see {@link #digest(byte[], byte[], byte[])}
+     *
+     * @param key the key of the entry
+     * @return the cached result, or null if there is none or it has expired
+     */
+    Boolean get(final ByteBuffer key) {
+        final long now = System.nanoTime();
+        final Map<ByteBuffer, Entry> stripe = stripe(key);
+        synchronized (stripe) {
+            final Entry cached = stripe.get(key);
+            if (cached != null && now - cached.myCreated < myTimeToLiveNanos) {
+                CryptoMetrics.VERIFICATION_CACHE_HITS.increment();
+                return cached.myValid;
+            }
+            if (cached != null) {
+                stripe.remove(key);
+            }
+        }
+        CryptoMetrics.VERIFICATION_CACHE_MISSES.increment();
+        return null;
+    }
+
+    /**
+     * Remember the result for a triple
+     *
+     * @param key   the key of the entry, see {@link #digest(byte[], byte[], byte[])}
+     * @param valid whether the signature verified
+     */
+    void put(final ByteBuffer key, final boolean valid) {
+        final Entry theEntry = new Entry(valid, System.nanoTime());
+        final Map<ByteBuffer, Entry> stripe = stripe(key);
+        synchronized (stripe) {
+            stripe.put(key, theEntry);
+        }
+    }
+
+    /**
+     * Get the number of results that are currently cached, including expired ones not looked up since
+     *
+     * @return the number of cached results
+     */
+    int size() {
+        int size = 0;
+        for (final Map<ByteBuffer, Entry> stripe : myStripes) {
+            synchronized (stripe) {
+                size += stripe.size();
+            }
+        }
+        return size;
+    }
+
+    /**
+     * The stripe that holds an entry, chosen by the first bytes of its digest, which are uniformly distributed
+     */
+    private Map<ByteBuffer, Entry> stripe(final ByteBuffer key) {
+        return myStripes.get(key.getInt(0) & (myStripes.size() - 1));
+    }
+
+    /**
+     * A verification result and when it was computed.
+     */
+    private static final class Entry {
+        private final boolean myValid;
+        private final long myCreated;
+
+        private Entry(final boolean theValid, final long theCreated) {
+            this.myValid = theValid;
+            this.myCreated = theCreated;
+        }
+    }
+}
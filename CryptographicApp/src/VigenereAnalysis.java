@@ -0,0 +1,299 @@
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Ciphertext-only recovery of Vigenère keys, see {@link VigenereCipher}.
+ * The key length is estimated with the Kasiski examination and the index of coincidence,
+ * then every key letter is found by chi-squared scoring of its column against English letter frequencies.
+ * Candidate key lengths, and separate cipher texts, are searched in parallel with fork/join.
+ *
+ * @author Yudong Lin
+ */
+final class VigenereAnalysis {
+    /**
+     * The longest key length that is tried
+     */
+    static final int MAX_KEY_LENGTH = 32;
+    /**
+     * Every column needs at least this many letters for its statistics to mean something
+     */
+    private static final int MIN_COLUMN_LENGTH = 8;
+    /**
+     * A key length is a candidate if its index of coincidence is at least this share of the best one,
+     * since every multiple of the real key length scores about as high as the real key length itself
+     */
+    private static final double CANDIDATE_SHARE = 0.9;
+    /**
+     * A key length is also a candidate if its index of coincidence is at least this, as is typical for English text,
+     * since long key lengths have short columns whose index of coincidence can be much higher by chance.
+     * Divisors of the real key length mix two or more shifts in every column and stay well below it.
+     */
+    private static final double ENGLISH_COINCIDENCE = 0.06;
+    private static final int ALPHABET = VigenereCipher.ALPHABET;
+    /**
+     * The frequencies of the letters A to Z in English text
+     */
+    private static final double[] ENGLISH = {
+            0.08167, 0.01492, 0.02782, 0.04253, 0.12702, 0.02228, 0.02015, 0.06094, 0.06966, 0.00153, 0.00772, 0.04025, 0.02406,
+            0.06749, 0.07507, 0.01929, 0.00095, 0.05987, 0.06327, 0.09056, 0.02758, 0.00978, 0.02360, 0.00150, 0.01974, 0.00074
+    };
+
+    private VigenereAnalysis() {
+    }
+
+    public static void main(final String[] args) {
+        final String message = "It was the best of times, it was the worst of times, it was the age of wisdom, it was the age of "
+                + "foolishness, it was the epoch of belief, it was the epoch of incredulity, it was the season of Light, "
+                + "it was the season of Darkness, it was the spring of hope, it was the winter of despair, we had everything "
+                + "before us, we had nothing before us, we were all going direct to Heaven, we were all going direct the "
+                + "other way - in short, the period was so far like the present period, that some of its noisiest "
+                + "authorities insisted on its being received, for good or for evil, in the superlative degree of comparison only.";
+        final List<String> keys = List.of("DICKENS", "LEMON", "CIPHER");
+        final List<byte[]> cipherTexts = keys.stream()
+                .map(k -> VigenereCipher.encryptParallel(message.getBytes(), VigenereCipher.parseKey(k))).toList();
+        final List<Result> results = recoverKeys(cipherTexts);
+        for (int i = 0; i < keys.size(); i++) {
+            assert results.get(i).toString().equals(keys.get(i)) : results.get(i) + " != " + keys.get(i);
+        }
+        try {
+            recoverKey("12345, 67890!".getBytes());
+            throw new AssertionError("A cipher text without letters was accepted");
+        } catch (final IllegalArgumentException expected) {
+            // nothing to recover
+        }
+    }
+
+    /**
+     * Recover the keys of many cipher texts, each in parallel with the others
+     *
+     * @param cipherTexts the cipher texts, in ASCII or any ASCII compatible encoding such as UTF-8
+     * @return the result for every cipher text, in the same order
+     */
+    static List<Result> recoverKeys(final List<byte[]> cipherTexts) {
+        final List<RecursiveTask<Result>> tasks = cipherTexts.stream().<RecursiveTask<Result>>map(cipherText -> new RecursiveTask<>() {
+            @Override
+            protected Result compute() {
+                return recoverKey(cipherText);
+            }
+        }).toList();
+        ForkJoinPool.commonPool().invoke(new RecursiveAction() {
+            @Override
+            protected void compute() {
+                invokeAll(tasks);
+            }
+        });
+        return tasks.stream().map(ForkJoinTask::join).toList();
+    }
+
+    /**
+     * Recover the key of a cipher text
+     *
+     * @param cipherText the cipher text, in ASCII or any ASCII compatible encoding such as UTF-8
+     * @return the key and the statistics it was chosen by
+     * @throws IllegalArgumentException the cipher text has too few letters to recover anything from
+     */
+    static Result recoverKey(final byte[] cipherText) {
+        final byte[] letters = VigenereCipher.toLetterValues(cipherText);
+        if (letters.length < MIN_COLUMN_LENGTH) {
+            throw new IllegalArgumentException("The cipher text needs at least " + MIN_COLUMN_LENGTH + " letters to recover the key!");
+        }
+        final int keyLength = estimateKeyLength(letters);
+        final int[] key = new int[keyLength];
+        double chiSquared = 0;
+        for (int column = 0; column < keyLength; column++) {
+            final int[] histogram = histogram(letters, column, keyLength);
+            double best = Double.MAX_VALUE;
+            for (int shift = 0; shift < ALPHABET; shift++) {
+                final double score = chiSquared(histogram, shift);
+                if (score < best) {
+                    best = score;
+                    key[column] = shift;
+                }
+            }
+            chiSquared += best;
+        }
+        return new Result(key, indexOfCoincidence(letters, keyLength), chiSquared / keyLength);
+    }
+
+    /**
+     * Estimate the key length: among the lengths whose average index of coincidence is close to the best one
+     * or typical for English, take the one that divides the most spacings of repeated trigrams,
+     * and the shortest one on a tie
+     *
+     * @param letters the letters of the cipher text, see {@link VigenereCipher#toLetterValues(byte[])}
+     * @return the most likely key length
+     */
+    static int estimateKeyLength(final byte[] letters) {
+        final int maxLength = Math.max(1, Math.min(MAX_KEY_LENGTH, letters.length / MIN_COLUMN_LENGTH));
+        final double[] coincidences = new double[maxLength + 1];
+        new LengthSearch(letters, coincidences, 1, maxLength + 1).invoke();
+        final int[] votes = kasiski(letters, maxLength);
+        final double threshold = Math.min(CANDIDATE_SHARE * Arrays.stream(coincidences).max().orElse(0), ENGLISH_COINCIDENCE);
+        int keyLength = 1;
+        for (int length = 2; length <= maxLength; length++) {
+            if (coincidences[length] >= threshold && (coincidences[keyLength] < threshold || votes[length] > votes[keyLength])) {
+                keyLength = length;
+            }
+        }
+        return keyLength;
+    }
+
+    /**
+     * The Kasiski examination: count, for every key length, how many spacings between repeated trigrams it divides
+     *
+     * @param letters   the letters of the cipher text
+     * @param maxLength the longest key length
+     * @return the number of spacings every key length divides, indexed by the key length
+     */
+    private static int[] kasiski(final byte[] letters, final int maxLength) {
+        final int[] votes = new int[maxLength + 1];
+        final int[] lastSeen = new int[ALPHABET * ALPHABET * ALPHABET];
+        Arrays.fill(lastSeen, -1);
+        for (int i = 0; i + 2 < letters.length; i++) {
+            final int trigram = (letters[i] * ALPHABET + letters[i + 1]) * ALPHABET + letters[i + 2];
+            if (lastSeen[trigram] >= 0) {
+                final int spacing = i - lastSeen[trigram];
+                for (int length = 1; length <= maxLength; length++) {
+                    if (spacing % length == 0) {
+                        votes[length]++;
+                    }
+                }
+            }
+            lastSeen[trigram] = i;
+        }
+        return votes;
+    }
+
+    /**
+     * The average index of coincidence of the columns of the letters, which is about 0.067
+     * for English when the key length is right and about 0.038 (the value of random letters) otherwise
+     *
+     * @param letters   the letters of the cipher text
+     * @param keyLength the key length
+     * @return the average index of coincidence
+     */
+    private static double indexOfCoincidence(final byte[] letters, final int keyLength) {
+        double sum = 0;
+        int columns = 0;
+        for (int column = 0; column < keyLength; column++) {
+            final int[] histogram = histogram(letters, column, keyLength);
+            long n = 0;
+            long pairs = 0;
+            for (final int count : histogram) {
+                n += count;
+                pairs += (long) count * (count - 1);
+            }
+            if (n > 1) {
+                sum += (double) pairs / (n * (n - 1));
+                columns++;
+            }
+        }
+        return columns == 0 ? 0 : sum / columns;
+    }
+
+    /**
+     * Count the letters of one column, that is every keyLength-th letter starting at column
+     */
+    private static int[] histogram(final byte[] letters, final int column, final int keyLength) {
+        final int[] histogram = new int[ALPHABET];
+        for (int i = column; i < letters.length; i += keyLength) {
+            histogram[letters[i]]++;
+        }
+        return histogram;
+    }
+
+    /**
+     * The chi-squared statistic of a column decrypted with the given shift against English letter frequencies,
+     * computed on the histogram of the cipher text by reading it shifted
+     */
+    private static double chiSquared(final int[] histogram, final int shift) {
+        int n = 0;
+        for (final int count : histogram) {
+            n += count;
+        }
+        double score = 0;
+        for (int letter = 0; letter < ALPHABET; letter++) {
+            final double expected = ENGLISH[letter] * n;
+            final double difference = histogram[(letter + shift) % ALPHABET] - expected;
+            score += difference * difference / expected;
+        }
+        return score;
+    }
+
+    /**
+     * Computes the index of coincidence of a range of key lengths, splitting the range until a single length is left.
+     */
+    private static final class LengthSearch extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+        private final byte[] myLetters;
+        private final double[] myCoincidences;
+        private final int myFrom;
+        private final int myTo;
+
+        private LengthSearch(final byte[] theLetters, final double[] theCoincidences, final int theFrom, final int theTo) {
+            this.myLetters = theLetters;
+            this.myCoincidences = theCoincidences;
+            this.myFrom = theFrom;
+            this.myTo = theTo;
+        }
+
+        @Override
+        protected void compute() {
+            if (myTo - myFrom == 1) {
+                myCoincidences[myFrom] = indexOfCoincidence(myLetters, myFrom);
+            } else {
+                final int middle = (myFrom + myTo) >>> 1;
+                invokeAll(new LengthSearch(myLetters, myCoincidences, myFrom, middle),
+                        new LengthSearch(myLetters, myCoincidences, middle, myTo));
+            }
+        }
+    }
+
+    /**
+     * A recovered key.
+     */
+    static final class Result {
+        private final int[] myKey;
+        private final double myIndexOfCoincidence;
+        private final double myChiSquared;
+
+        private Result(final int[] theKey, final double theIndexOfCoincidence, final double theChiSquared) {
+            this.myKey = theKey;
+            this.myIndexOfCoincidence = theIndexOfCoincidence;
+            this.myChiSquared = theChiSquared;
+        }
+
+        /**
+         * @return the shift of every key letter, as accepted by {@link VigenereCipher}
+         */
+        int[] getKey() {
+            return myKey.clone();
+        }
+
+        /**
+         * @return the average index of coincidence of the columns for the recovered key length
+         */
+        double getIndexOfCoincidence() {
+            return myIndexOfCoincidence;
+        }
+
+        /**
+         * @return the average chi-squared statistic of the columns decrypted with the recovered key, lower is more English
+         */
+        double getChiSquared() {
+            return myChiSquared;
+        }
+
+        /**
+         * @return the key as upper case letters
+         */
+        @Override
+        public String toString() {
+            return VigenereCipher.keyToString(myKey);
+        }
+    }
+}
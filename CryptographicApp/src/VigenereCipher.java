@@ -1,7 +1,53 @@
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.util.Arrays;
+import java.util.stream.IntStream;
+
+/**
+ * The Vigenère cipher over the 26 letters of the English alphabet, with a repeating key of any length.
+ * Letters keep their case, every other character is passed through as it is and does not use up a key letter.
+ * All shifts are looked up in tables computed once, and data can be transformed in memory, in parallel
+ * or streamed through byte streams and Reader/Writer.
+ *
+ * @author Yudong Lin
+ */
 final class VigenereCipher {
     private static final String KEYS = "ABCDEFGHIJKLMNOPQRSTUVWXYZ";
+    static final int ALPHABET = KEYS.length();
+    private static final int BLOCK_SIZE = 1 << 16;
+    /**
+     * The size of the pieces data is split into by the parallel path
+     */
+    private static final int PARALLEL_CHUNK_SIZE = 1 << 20;
+    /**
+     * The position of every letter in the alphabet, in either case, and -1 for every other byte
+     */
+    private static final byte[] LETTER_VALUES = new byte[256];
+    /**
+     * SHIFTS[k][b] is the byte b shifted forward by k letters, or b itself if it is not a letter
+     */
+    private static final byte[][] SHIFTS = new byte[ALPHABET][256];
 
-    public static void main(final String[] args) {
+    static {
+        Arrays.fill(LETTER_VALUES, (byte) -1);
+        for (int i = 0; i < ALPHABET; i++) {
+            LETTER_VALUES['A' + i] = (byte) i;
+            LETTER_VALUES['a' + i] = (byte) i;
+        }
+        for (int k = 0; k < ALPHABET; k++) {
+            for (int b = 0; b < 256; b++) {
+                final int v = LETTER_VALUES[b];
+                SHIFTS[k][b] = v < 0 ? (byte) b : (byte) ((b >= 'a' ? 'a' : 'A') + (v + k) % ALPHABET);
+            }
+        }
+    }
+
+    public static void main(final String[] args) throws IOException {
         final char[] message1 = "LOTSAMONEY".toCharArray();
         final char[] cipherText1 = "EWWWLUOAOM".toCharArray();
         final int[] theKey = getKey(message1, cipherText1);
@@ -10,30 +56,264 @@ final class VigenereCipher {
         final char[] cipherText2 = "GWPSCMCNCV".toCharArray();
 
         assert String.valueOf(decrypt(cipherText2, theKey)).equals("NOMORECASH");
+
+        final int[] lemon = parseKey("LEMON");
+        assert String.valueOf(encrypt("ATTACKATDAWN".toCharArray(), lemon)).equals("LXFOPVEFRNHR");
+        assert String.valueOf(encrypt("Attack at dawn!".toCharArray(), lemon)).equals("Lxfopv ef rnhr!");
+
+        final StringWriter streamed = new StringWriter();
+        encrypt(new StringReader("Attack at dawn!"), streamed, lemon);
+        assert streamed.toString().equals("Lxfopv ef rnhr!");
+
+        final byte[] corpus = new byte[3 * PARALLEL_CHUNK_SIZE + 12345];
+        for (int i = 0; i < corpus.length; i++) {
+            corpus[i] = (byte) (i * 31 % 97 + 20);
+        }
+        final int[] longKey = parseKey("TheQuickBrownFox");
+        final byte[] sequential = corpus.clone();
+        new Engine(longKey, false, 0).apply(sequential, 0, sequential.length);
+        assert Arrays.equals(encryptParallel(corpus, longKey), sequential);
+        assert Arrays.equals(decryptParallel(sequential, longKey), corpus);
+    }
+
+    /**
+     * Get the letters of a text, dropping every other character
+     *
+     * @param text the text, in ASCII or any ASCII compatible encoding such as UTF-8
+     * @return the position in the alphabet of every letter of the text, from 0 for A to 25 for Z
+     */
+    static byte[] toLetterValues(final byte[] text) {
+        final byte[] values = new byte[text.length];
+        int n = 0;
+        for (final byte b : text) {
+            final byte v = LETTER_VALUES[b & 0xff];
+            if (v >= 0) {
+                values[n++] = v;
+            }
+        }
+        return Arrays.copyOf(values, n);
+    }
+
+    /**
+     * Write a key as upper case letters
+     *
+     * @param key the shift of every key letter
+     * @return the key, such as "LEMON"
+     */
+    static String keyToString(final int[] key) {
+        final StringBuilder text = new StringBuilder(key.length);
+        for (final int k : key) {
+            text.append(KEYS.charAt(Math.floorMod(k, ALPHABET)));
+        }
+        return text.toString();
     }
 
-    private static int[] getKey(final char[] message, final char[] cipherText) {
+    /**
+     * Parse a key written as letters, such as "LEMON", into the shift of every key letter
+     *
+     * @param key the key, letters of either case
+     * @return the shifts, from 0 for A to 25 for Z
+     */
+    static int[] parseKey(final String key) {
+        if (key.isEmpty()) {
+            throw new IllegalArgumentException("The key must not be empty!");
+        }
+        final int[] shifts = new int[key.length()];
+        for (int i = 0; i < key.length(); i++) {
+            final char c = key.charAt(i);
+            if (c >= 256 || LETTER_VALUES[c] < 0) {
+                throw new IllegalArgumentException("The key may only contain the letters A to Z!");
+            }
+            shifts[i] = LETTER_VALUES[c];
+        }
+        return shifts;
+    }
+
+    /**
+     * Recover the key from a known message and its cipher text, both of letters only
+     *
+     * @param message    the message
+     * @param cipherText the cipher text
+     * @return the key, as long as the message
+     */
+    static int[] getKey(final char[] message, final char[] cipherText) {
         final int[] _key = new int[message.length];
         for (int i = 0; i < message.length; i++) {
-            final int k_i = KEYS.indexOf(cipherText[i]) - KEYS.indexOf(message[i]);
-            _key[i] = k_i >= 0 ? k_i : KEYS.length() + k_i;
+            final int k_i = LETTER_VALUES[cipherText[i] & 0xff] - LETTER_VALUES[message[i] & 0xff];
+            _key[i] = k_i >= 0 ? k_i : ALPHABET + k_i;
         }
         return _key;
     }
 
-    private static char[] encrypt(final char[] message, final int[] key) {
-        final char[] cipherText = new char[message.length];
-        for (int i = 0; i < message.length; i++) {
-            cipherText[i] = KEYS.charAt((KEYS.indexOf(message[i]) + key[i]) % 26);
-        }
+    static char[] encrypt(final char[] message, final int[] key) {
+        final char[] cipherText = message.clone();
+        new Engine(key, false, 0).apply(cipherText, 0, cipherText.length);
         return cipherText;
     }
 
-    private static char[] decrypt(final char[] cipherText, final int[] key) {
-        final char[] message = new char[cipherText.length];
-        for (int i = 0; i < cipherText.length; i++) {
-            message[i] = KEYS.charAt((KEYS.indexOf(cipherText[i]) - key[i] + 26) % 26);
-        }
+    static char[] decrypt(final char[] cipherText, final int[] key) {
+        final char[] message = cipherText.clone();
+        new Engine(key, true, 0).apply(message, 0, message.length);
         return message;
     }
+
+    /**
+     * Encrypt text read from a Reader, writing the cipher text to a Writer as it is produced
+     *
+     * @param in  the message
+     * @param out where the cipher text will be written
+     * @param key the key
+     * @throws IOException fail to read or to write
+     */
+    static void encrypt(final Reader in, final Writer out, final int[] key) throws IOException {
+        transform(in, out, new Engine(key, false, 0));
+    }
+
+    /**
+     * Decrypt text read from a Reader, writing the message to a Writer as it is produced
+     *
+     * @param in  the cipher text
+     * @param out where the message will be written
+     * @param key the key
+     * @throws IOException fail to read or to write
+     */
+    static void decrypt(final Reader in, final Writer out, final int[] key) throws IOException {
+        transform(in, out, new Engine(key, true, 0));
+    }
+
+    /**
+     * Encrypt bytes of ASCII or any ASCII compatible encoding such as UTF-8, writing the cipher text as it is produced
+     *
+     * @param in  the message
+     * @param out where the cipher text will be written
+     * @param key the key
+     * @throws IOException fail to read or to write
+     */
+    static void encrypt(final InputStream in, final OutputStream out, final int[] key) throws IOException {
+        transform(in, out, new Engine(key, false, 0));
+    }
+
+    /**
+     * Decrypt bytes of ASCII or any ASCII compatible encoding such as UTF-8, writing the message as it is produced
+     *
+     * @param in  the cipher text
+     * @param out where the message will be written
+     * @param key the key
+     * @throws IOException fail to read or to write
+     */
+    static void decrypt(final InputStream in, final OutputStream out, final int[] key) throws IOException {
+        transform(in, out, new Engine(key, true, 0));
+    }
+
+    /**
+     * Encrypt a large text in parallel, see {@link #encrypt(InputStream, OutputStream, int[])} for the encoding
+     *
+     * @param message the message
+     * @param key     the key
+     * @return the cipher text
+     */
+    static byte[] encryptParallel(final byte[] message, final int[] key) {
+        return transformParallel(message, key, false);
+    }
+
+    /**
+     * Decrypt a large text in parallel, see {@link #decrypt(InputStream, OutputStream, int[])} for the encoding
+     *
+     * @param cipherText the cipher text
+     * @param key        the key
+     * @return the message
+     */
+    static byte[] decryptParallel(final byte[] cipherText, final int[] key) {
+        return transformParallel(cipherText, key, true);
+    }
+
+    private static void transform(final Reader in, final Writer out, final Engine engine) throws IOException {
+        final char[] block = new char[BLOCK_SIZE];
+        int n;
+        while ((n = in.read(block)) >= 0) {
+            engine.apply(block, 0, n);
+            out.write(block, 0, n);
+        }
+        out.flush();
+    }
+
+    private static void transform(final InputStream in, final OutputStream out, final Engine engine) throws IOException {
+        final byte[] block = new byte[BLOCK_SIZE];
+        int n;
+        while ((n = in.read(block)) >= 0) {
+            engine.apply(block, 0, n);
+            out.write(block, 0, n);
+        }
+        out.flush();
+    }
+
+    /**
+     * Split the data into chunks, count the letters of every chunk to know which key letter it starts with,
+     * and then transform all chunks independently
+     */
+    private static byte[] transformParallel(final byte[] data, final int[] key, final boolean decrypt) {
+        final byte[] result = data.clone();
+        final int chunks = (data.length + PARALLEL_CHUNK_SIZE - 1) / PARALLEL_CHUNK_SIZE;
+        final int[] startPositions = new int[chunks];
+        IntStream.range(0, chunks - 1).parallel().forEach(c -> {
+            int letters = 0;
+            for (int i = c * PARALLEL_CHUNK_SIZE; i < (c + 1) * PARALLEL_CHUNK_SIZE; i++) {
+                letters += ~LETTER_VALUES[data[i] & 0xff] >>> 31;
+            }
+            startPositions[c + 1] = letters % key.length;
+        });
+        for (int c = 1; c < chunks; c++) {
+            startPositions[c] = (startPositions[c - 1] + startPositions[c]) % key.length;
+        }
+        IntStream.range(0, chunks).parallel().forEach(c -> new Engine(key, decrypt, startPositions[c])
+                .apply(result, c * PARALLEL_CHUNK_SIZE, Math.min(PARALLEL_CHUNK_SIZE, data.length - c * PARALLEL_CHUNK_SIZE)));
+        return result;
+    }
+
+    /**
+     * Applies the key to consecutive pieces of text, remembering which key letter comes next.
+     */
+    private static final class Engine {
+        /**
+         * The shift table of every key letter
+         */
+        private final byte[][] myTables;
+        private int myPosition;
+
+        private Engine(final int[] theKey, final boolean decrypt, final int thePosition) {
+            if (theKey.length == 0) {
+                throw new IllegalArgumentException("The key must not be empty!");
+            }
+            this.myTables = new byte[theKey.length][];
+            for (int i = 0; i < theKey.length; i++) {
+                final int shift = Math.floorMod(theKey[i], ALPHABET);
+                myTables[i] = SHIFTS[decrypt ? (ALPHABET - shift) % ALPHABET : shift];
+            }
+            this.myPosition = thePosition;
+        }
+
+        private void apply(final byte[] data, final int offset, final int length) {
+            for (int i = offset; i < offset + length; i++) {
+                final int b = data[i] & 0xff;
+                if (LETTER_VALUES[b] >= 0) {
+                    data[i] = myTables[myPosition][b];
+                    if (++myPosition == myTables.length) {
+                        myPosition = 0;
+                    }
+                }
+            }
+        }
+
+        private void apply(final char[] data, final int offset, final int length) {
+            for (int i = offset; i < offset + length; i++) {
+                final char c = data[i];
+                if (c < 256 && LETTER_VALUES[c] >= 0) {
+                    data[i] = (char) (myTables[myPosition][c] & 0xff);
+                    if (++myPosition == myTables.length) {
+                        myPosition = 0;
+                    }
+                }
+            }
+        }
+    }
 }